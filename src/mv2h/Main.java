@@ -11,7 +11,12 @@ import mv2h.objects.MV2H;
 import mv2h.objects.Music;
 import mv2h.objects.Note;
 import mv2h.tools.Aligner;
+import mv2h.tools.AlignmentEvaluator;
+import mv2h.tools.AlignmentIterator;
 import mv2h.tools.AlignmentNode;
+import mv2h.tools.OnlineAligner;
+import mv2h.tools.SearchPlanner;
+import mv2h.tools.TimeMap;
 
 /**
  * The <code>Main</code> class is the class called to evaluate anything with the MV2H package.
@@ -59,7 +64,7 @@ public class Main {
 	 * <br>
 	 * @see #PERFORM_ALIGNMENT
 	 */
-	private static boolean PRINT_ALIGNMENT = false;
+	public static boolean PRINT_ALIGNMENT = false;
 
 	/**
 	 * The penalty assigned for insertion and deletion errors when performing alignment.
@@ -68,6 +73,117 @@ public class Main {
 	 */
 	public static double NON_ALIGNMENT_PENALTY = 1.0;
 
+	/**
+	 * The penalties of a sweep, for each of which the best alignment is found and evaluated, sharing the
+	 * DTW's distance computations (see {@link Aligner#getPossibleAlignments(Music, Music, double[])}).
+	 * Defaults to null, meaning only {@link #NON_ALIGNMENT_PENALTY} is used. Can be set by giving the
+	 * <code>-p</code> flag a comma-separated list.
+	 */
+	public static double[] PENALTY_SWEEP = null;
+
+	/**
+	 * The maximum number of candidate alignments for which the non-alignment penalty is tuned
+	 * (see {@link Aligner#tunePenalty(Music, Music, long)}). Defaults to -1, meaning
+	 * {@link #NON_ALIGNMENT_PENALTY} is used as given. Can be set with the <code>-P</code> flag.
+	 */
+	public static long PENALTY_CANDIDATE_BUDGET = -1;
+
+	/**
+	 * The number of threads to use when evaluating candidate alignments, and when filling large
+	 * alignment matrices. Defaults to 1 (serial evaluation). Can be set with the <code>-j</code> flag.
+	 * <br>
+	 * @see #PARALLEL_DTW_THRESHOLD
+	 */
+	public static int THREADS = 1;
+
+	/**
+	 * The minimum number of cells within the band of an alignment matrix for it to be filled in parallel
+	 * (by {@link #THREADS} threads). Smaller matrices are filled serially. Defaults to 1000000.
+	 * Can be set with the <code>-w</code> flag.
+	 */
+	public static long PARALLEL_DTW_THRESHOLD = 1000000;
+
+	/**
+	 * The radius of the band (in note lists) around the expected alignment path within which the
+	 * DTW alignment is computed. Defaults to -1, meaning the whole alignment matrix is computed.
+	 * Can be set with the <code>-b</code> flag.
+	 */
+	public static int DTW_BAND_RADIUS = -1;
+
+	/**
+	 * The radius of the band (in note lists) around the projected lower resolution alignment path
+	 * within which the DTW alignment is computed at each resolution. Defaults to -1, meaning that
+	 * multi-resolution alignment is not used. Can be set with the <code>-r</code> flag.
+	 */
+	public static int MULTI_RESOLUTION_RADIUS = -1;
+
+	/**
+	 * The number of consecutive note lists in the n-grams used to anchor the DTW alignment (see
+	 * {@link mv2h.tools.AnchorFinder}). Defaults to -1, meaning no anchors are used.
+	 * Can be set with the <code>-n</code> flag.
+	 */
+	public static int ANCHOR_LENGTH = -1;
+
+	/**
+	 * The radius of the window (in note lists) within which the transcription is aligned online,
+	 * one note list at a time. Defaults to -1, meaning that the offline alignment search is used.
+	 * Can be set with the <code>-o</code> flag.
+	 */
+	public static int ONLINE_RADIUS = -1;
+
+	/**
+	 * The age (in note lists) at which each online alignment match is committed. Defaults to -1, meaning
+	 * the online window radius. Can be set with the <code>-L</code> flag.
+	 */
+	public static int ONLINE_LATENCY = -1;
+
+	/**
+	 * A flag representing if the vectorized DTW engine should be used to compute the alignment matrix.
+	 * Defaults to <code>false</code>. Can be set to <code>true</code> with the <code>-V</code> flag.
+	 */
+	public static boolean VECTORIZED_DTW = false;
+
+	/**
+	 * The directory in which computed alignment matrices are cached, to be reused by later runs on the
+	 * same inputs. Defaults to null, meaning no cache is used. Can be set with the <code>-c</code> flag.
+	 */
+	public static File CACHE_DIRECTORY = null;
+
+	/**
+	 * The directory in which DTW alignment matrices are stored off-heap, in memory-mapped temporary files,
+	 * so that very large alignments are bounded by disk space rather than by the Java heap. Defaults to null,
+	 * meaning that alignment matrices are stored in the heap. Can be set with the <code>-m</code> flag.
+	 */
+	public static File OFF_HEAP_DIRECTORY = null;
+
+	/**
+	 * A flag representing if the approximate segment decomposition search should be used to find the best
+	 * alignment. Defaults to <code>false</code>. Can be set to <code>true</code> with the <code>-d</code> flag.
+	 */
+	public static boolean SEGMENT_DECOMPOSITION = false;
+
+	/**
+	 * The maximum number of candidate alignments to evaluate in a budgeted search. Defaults to -1,
+	 * meaning no limit. Can be set with the <code>-k</code> flag.
+	 * <br>
+	 * @see #TIME_LIMIT
+	 */
+	public static long MAX_CANDIDATES = -1;
+
+	/**
+	 * The time limit, in seconds, for evaluating candidate alignments in a budgeted search. Defaults
+	 * to -1, meaning no limit. Can be set with the <code>-s</code> flag.
+	 * <br>
+	 * @see #MAX_CANDIDATES
+	 */
+	public static double TIME_LIMIT = -1;
+
+	/**
+	 * The time, in seconds, which a planned alignment search should take (see {@link SearchPlanner}).
+	 * Defaults to -1, meaning no planning. Can be set with the <code>-l</code> flag.
+	 */
+	public static double PLAN_TIME_LIMIT = -1;
+
 	/**
 	 * Use verbose printing.
 	 */
@@ -83,6 +199,22 @@ public class Main {
 	 * <li><code>-a</code> = Perform alignment.</li>
 	 * <li><code>-A</code> = Perform and print alignment.</li>
 	 * <li><code>-p DOUBLE</code> = Set the DTW insertion and deletion penalty.</li>
+	 * <li><code>-p DOUBLE,DOUBLE,...</code> = Evaluate with each of the given DTW insertion and deletion penalties.</li>
+	 * <li><code>-P INT</code> = Use the smallest DTW insertion and deletion penalty giving at most the given number of candidate alignments.</li>
+	 * <li><code>-j INT</code> = Evaluate candidate alignments using the given number of threads.</li>
+	 * <li><code>-w INT</code> = Fill alignment matrices with at least the given number of cells in parallel.</li>
+	 * <li><code>-b INT</code> = Restrict the DTW alignment to a band of the given radius.</li>
+	 * <li><code>-r INT</code> = Use multi-resolution DTW alignment with the given radius.</li>
+	 * <li><code>-n INT</code> = Anchor the DTW alignment at unique matching n-grams of the given number of note lists.</li>
+	 * <li><code>-o INT</code> = Align online (as the transcription is streamed) within a window of the given radius.</li>
+	 * <li><code>-L INT</code> = With -o, commit each online match once it is the given number of note lists old.</li>
+	 * <li><code>-V</code> = Use the vectorized DTW engine.</li>
+	 * <li><code>-c DIR</code> = Cache alignment matrices in the given directory.</li>
+	 * <li><code>-m DIR</code> = Store alignment matrices off-heap, in memory-mapped files in the given directory.</li>
+	 * <li><code>-d</code> = Search for the best alignment approximately, one segment (between choke points) at a time.</li>
+	 * <li><code>-k INT</code> = Evaluate at most the given number of the most promising candidate alignments.</li>
+	 * <li><code>-s DOUBLE</code> = Evaluate the most promising candidate alignments for at most the given number of seconds.</li>
+	 * <li><code>-l DOUBLE</code> = Choose the alignment search strategy automatically, to take about the given number of seconds.</li>
 	 * </ul>
 	 * <br>
 	 * 2. Get the means and standard deviations of many outputs of this program
@@ -96,6 +228,7 @@ public class Main {
 	public static void main(String[] args) throws IOException {
 		File groundTruth = null;
 		File transcription = null;
+		boolean penaltyGiven = false;
 
 		// No args given
 		if (args.length == 0) {
@@ -132,9 +265,205 @@ public class Main {
 								argumentError("No non-alignment penalty given with -p.");
 							}
 							try {
-								NON_ALIGNMENT_PENALTY = Double.parseDouble(args[i]);
+								String[] penalties = args[i].split(",", -1);
+								if (penalties.length == 1) {
+									NON_ALIGNMENT_PENALTY = Double.parseDouble(args[i]);
+								} else {
+									PENALTY_SWEEP = new double[penalties.length];
+									for (int p = 0; p < penalties.length; p++) {
+										PENALTY_SWEEP[p] = Double.parseDouble(penalties[p]);
+									}
+								}
+							} catch (NumberFormatException e) {
+								argumentError("Non-alignment penalty must be a decimal value, or a comma-separated list of them. Given: " + args[i]);
+							}
+							penaltyGiven = true;
+							break;
+
+						case 'P':
+							i++;
+							if (args.length <= i) {
+								argumentError("No candidate count given with -P.");
+							}
+							try {
+								PENALTY_CANDIDATE_BUDGET = Long.parseLong(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Candidate count must be an integer. Given: " + args[i]);
+							}
+							if (PENALTY_CANDIDATE_BUDGET < 1) {
+								argumentError("Candidate count must be at least 1. Given: " + args[i]);
+							}
+							break;
+
+						case 'j':
+							i++;
+							if (args.length <= i) {
+								argumentError("No thread count given with -j.");
+							}
+							try {
+								THREADS = Integer.parseInt(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Thread count must be an integer. Given: " + args[i]);
+							}
+							if (THREADS < 1) {
+								argumentError("Thread count must be at least 1. Given: " + args[i]);
+							}
+							break;
+
+						case 'b':
+							i++;
+							if (args.length <= i) {
+								argumentError("No band radius given with -b.");
+							}
+							try {
+								DTW_BAND_RADIUS = Integer.parseInt(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Band radius must be an integer. Given: " + args[i]);
+							}
+							if (DTW_BAND_RADIUS < 0) {
+								argumentError("Band radius must be non-negative. Given: " + args[i]);
+							}
+							break;
+
+						case 'r':
+							i++;
+							if (args.length <= i) {
+								argumentError("No multi-resolution radius given with -r.");
+							}
+							try {
+								MULTI_RESOLUTION_RADIUS = Integer.parseInt(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Multi-resolution radius must be an integer. Given: " + args[i]);
+							}
+							if (MULTI_RESOLUTION_RADIUS < 0) {
+								argumentError("Multi-resolution radius must be non-negative. Given: " + args[i]);
+							}
+							break;
+
+						case 'n':
+							i++;
+							if (args.length <= i) {
+								argumentError("No n-gram length given with -n.");
+							}
+							try {
+								ANCHOR_LENGTH = Integer.parseInt(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("N-gram length must be an integer. Given: " + args[i]);
+							}
+							if (ANCHOR_LENGTH < 1) {
+								argumentError("N-gram length must be at least 1. Given: " + args[i]);
+							}
+							break;
+
+						case 'o':
+							i++;
+							if (args.length <= i) {
+								argumentError("No online window radius given with -o.");
+							}
+							try {
+								ONLINE_RADIUS = Integer.parseInt(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Online window radius must be an integer. Given: " + args[i]);
+							}
+							if (ONLINE_RADIUS < 1) {
+								argumentError("Online window radius must be at least 1. Given: " + args[i]);
+							}
+							break;
+
+						case 'L':
+							i++;
+							if (args.length <= i) {
+								argumentError("No online latency given with -L.");
+							}
+							try {
+								ONLINE_LATENCY = Integer.parseInt(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Online latency must be an integer. Given: " + args[i]);
+							}
+							if (ONLINE_LATENCY < 1) {
+								argumentError("Online latency must be at least 1. Given: " + args[i]);
+							}
+							break;
+
+						case 'w':
+							i++;
+							if (args.length <= i) {
+								argumentError("No parallel DTW threshold given with -w.");
+							}
+							try {
+								PARALLEL_DTW_THRESHOLD = Long.parseLong(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Parallel DTW threshold must be an integer. Given: " + args[i]);
+							}
+							if (PARALLEL_DTW_THRESHOLD < 0) {
+								argumentError("Parallel DTW threshold must be non-negative. Given: " + args[i]);
+							}
+							break;
+
+						case 'c':
+							i++;
+							if (args.length <= i) {
+								argumentError("No cache directory given with -c.");
+							}
+							CACHE_DIRECTORY = new File(args[i]);
+							if (CACHE_DIRECTORY.exists() && !CACHE_DIRECTORY.isDirectory()) {
+								argumentError("Cache directory " + CACHE_DIRECTORY + " is not a directory.");
+							}
+							break;
+
+						case 'm':
+							i++;
+							if (args.length <= i) {
+								argumentError("No off-heap directory given with -m.");
+							}
+							OFF_HEAP_DIRECTORY = new File(args[i]);
+							if (!OFF_HEAP_DIRECTORY.isDirectory()) {
+								argumentError("Off-heap directory " + OFF_HEAP_DIRECTORY + " is not a directory.");
+							}
+							break;
+
+						case 'k':
+							i++;
+							if (args.length <= i) {
+								argumentError("No candidate count given with -k.");
+							}
+							try {
+								MAX_CANDIDATES = Long.parseLong(args[i]);
 							} catch (NumberFormatException e) {
-								argumentError("Non-alignment penalty must be a decimal value. Given: " + args[i]);
+								argumentError("Candidate count must be an integer. Given: " + args[i]);
+							}
+							if (MAX_CANDIDATES < 1) {
+								argumentError("Candidate count must be at least 1. Given: " + args[i]);
+							}
+							break;
+
+						case 's':
+							i++;
+							if (args.length <= i) {
+								argumentError("No time limit given with -s.");
+							}
+							try {
+								TIME_LIMIT = Double.parseDouble(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Time limit must be a decimal value. Given: " + args[i]);
+							}
+							if (!(TIME_LIMIT > 0)) {
+								argumentError("Time limit must be positive. Given: " + args[i]);
+							}
+							break;
+
+						case 'l':
+							i++;
+							if (args.length <= i) {
+								argumentError("No time limit given with -l.");
+							}
+							try {
+								PLAN_TIME_LIMIT = Double.parseDouble(args[i]);
+							} catch (NumberFormatException e) {
+								argumentError("Planned time must be a decimal value. Given: " + args[i]);
+							}
+							if (!(PLAN_TIME_LIMIT > 0)) {
+								argumentError("Planned time must be positive. Given: " + args[i]);
 							}
 							break;
 
@@ -171,6 +500,14 @@ public class Main {
 							VERBOSE = true;
 							break;
 
+						case 'V':
+							VECTORIZED_DTW = true;
+							break;
+
+						case 'd':
+							SEGMENT_DECOMPOSITION = true;
+							break;
+
 						// Error
 						default:
 							argumentError("Unrecognized option: " + args[i]);
@@ -183,6 +520,52 @@ public class Main {
 			}
 		}
 
+		if (DTW_BAND_RADIUS != -1 && MULTI_RESOLUTION_RADIUS != -1) {
+			argumentError("-b INT and -r INT cannot be used together.");
+		}
+
+		if (ANCHOR_LENGTH != -1 && (DTW_BAND_RADIUS != -1 || MULTI_RESOLUTION_RADIUS != -1 || ONLINE_RADIUS != -1)) {
+			argumentError("-n INT cannot be used with -b INT, -r INT, or -o INT.");
+		}
+
+		if (SEGMENT_DECOMPOSITION && (MAX_CANDIDATES != -1 || TIME_LIMIT != -1)) {
+			argumentError("-d cannot be used with -k INT or -s DOUBLE.");
+		}
+
+		if (PLAN_TIME_LIMIT != -1 && (SEGMENT_DECOMPOSITION || MAX_CANDIDATES != -1 || TIME_LIMIT != -1)) {
+			argumentError("-l DOUBLE cannot be used with -d, -k INT, or -s DOUBLE.");
+		}
+
+		if (ONLINE_RADIUS != -1 && !PERFORM_ALIGNMENT) {
+			argumentError("-o INT can only be used with -a or -A.");
+		}
+
+		if (ONLINE_RADIUS != -1 && (DTW_BAND_RADIUS != -1 || MULTI_RESOLUTION_RADIUS != -1 || SEGMENT_DECOMPOSITION ||
+				MAX_CANDIDATES != -1 || TIME_LIMIT != -1 || THREADS != 1 || VECTORIZED_DTW || CACHE_DIRECTORY != null ||
+				OFF_HEAP_DIRECTORY != null)) {
+			argumentError("-o INT cannot be used with -b INT, -r INT, -d, -k INT, -s DOUBLE, -j INT, -V, -c DIR, or -m DIR.");
+		}
+
+		if (ONLINE_LATENCY != -1 && ONLINE_RADIUS == -1) {
+			argumentError("-L INT can only be used with -o INT.");
+		}
+
+		if (PENALTY_CANDIDATE_BUDGET != -1 && penaltyGiven) {
+			argumentError("-p DOUBLE and -P INT cannot be used together.");
+		}
+
+		if (PENALTY_SWEEP != null && (!PERFORM_ALIGNMENT || ONLINE_RADIUS != -1 || MULTI_RESOLUTION_RADIUS != -1)) {
+			argumentError("-p DOUBLE,DOUBLE,... can only be used with -a or -A, and not with -o INT or -r INT.");
+		}
+
+		if (PENALTY_CANDIDATE_BUDGET != -1 && (!PERFORM_ALIGNMENT || ONLINE_RADIUS != -1)) {
+			argumentError("-P INT can only be used with -a or -A, and not with -o INT.");
+		}
+
+		if (PLAN_TIME_LIMIT != -1 && (!PERFORM_ALIGNMENT || ONLINE_RADIUS != -1)) {
+			argumentError("-l DOUBLE can only be used with -a or -A, and not with -o INT.");
+		}
+
 		if (groundTruth != null && transcription != null) {
 			evaluateGroundTruth(groundTruth, transcription);
 		} else {
@@ -204,63 +587,166 @@ public class Main {
 		Music transcription = Music.parseMusic(new Scanner(transcriptionFile));
 
 		// Get scores
-		if (PERFORM_ALIGNMENT) {
+		if (PERFORM_ALIGNMENT && ONLINE_RADIUS != -1) {
+			// Align the transcription one note list at a time
+			int latency = ONLINE_LATENCY == -1 ? ONLINE_RADIUS : ONLINE_LATENCY;
+			OnlineAligner aligner = new OnlineAligner(groundTruth, ONLINE_RADIUS, latency);
+			int estimatedTime = Integer.MIN_VALUE;
+			int added = 0;
+			int nextEstimate = latency;
+			for (List<Note> noteList : transcription.getNoteLists()) {
+				aligner.addNoteList(noteList);
+				added++;
+
+				// Estimate the score up to the end of each newly committed region, where the time map is final.
+				// Each region is at least a quarter of the length before it, so that the estimates take time
+				// linear in the length of the transcription in total.
+				int committedTime = aligner.getCommittedTime();
+				if (committedTime > estimatedTime && added >= nextEstimate) {
+					estimatedTime = committedTime;
+					nextEstimate = added + Math.max(latency, added / 4);
+					TimeMap timeMap = aligner.getTimeMap();
+					MV2H estimate = groundTruth.truncate(timeMap.convert(committedTime)).evaluateTranscription(
+							transcription.truncate(committedTime).align(timeMap));
+					System.out.println("Committed up to time " + committedTime + ": MV2H: " + estimate.mv2h);
+				}
+			}
+			aligner.finish();
 
-			// Choose the best possible alignment out of all potential alignments.
-			MV2H best = new MV2H(0, 0, 0, 0, 0);
-			List<Integer> bestAlignment = new ArrayList<Integer>();
+			if (PRINT_ALIGNMENT) {
+				System.out.println("ONLINE ALIGNMENT");
+				System.out.println("================");
 
-			List<AlignmentNode> alignmentNodes = Aligner.getPossibleAlignments(groundTruth, transcription);
-			BigInteger total = new BigInteger("0");
-			for (AlignmentNode alignmentNode : alignmentNodes) {
-				total = total.add(alignmentNode.count);
+				System.out.println(getAlignmentString(groundTruth, transcription, aligner.getAlignment()));
+				System.out.println();
 			}
 
-			BigInteger i = new BigInteger("0");
-			String lineEnding = VERBOSE ? "\n" : "\r";
-			for (AlignmentNode alignmentNode : alignmentNodes) {
-				for (BigInteger alignmentIndex = new BigInteger("0"); alignmentIndex.compareTo(alignmentNode.count) < 0; alignmentIndex = alignmentIndex.add(new BigInteger("1"))) {
-					i = i.add(new BigInteger("1"));
-					System.out.print("Evaluating alignment " + i + " / " + total + lineEnding);
+			if (VERBOSE || PRINT_ALIGNMENT) {
+				System.out.println("ONLINE MV2H");
+				System.out.println("===========");
+			}
 
-					List<Integer> alignment = alignmentNode.getAlignment(alignmentIndex);
+			System.out.println(groundTruth.evaluateTranscription(transcription.align(aligner.getTimeMap())));
 
-					MV2H candidate = groundTruth.evaluateTranscription(transcription.align(groundTruth, alignment));
+		} else if (PERFORM_ALIGNMENT) {
 
-					if (VERBOSE) {
-						if (PRINT_ALIGNMENT) {
-							System.out.println(getAlignmentString(groundTruth, transcription, alignment));
-						}
-						System.out.println(candidate);
-					}
+			// Choose the best possible alignment out of all potential alignments.
+			if (PENALTY_SWEEP != null) {
+				List<List<AlignmentNode>> sweepNodes = Aligner.getPossibleAlignments(groundTruth, transcription, PENALTY_SWEEP);
+				for (int p = 0; p < PENALTY_SWEEP.length; p++) {
+					NON_ALIGNMENT_PENALTY = PENALTY_SWEEP[p];
+					System.out.println("Penalty: -p " + NON_ALIGNMENT_PENALTY);
+					evaluateAlignments(groundTruth, transcription, sweepNodes.get(p));
+					System.out.println();
+				}
 
-					if (candidate.compareTo(best) > 0) {
-						best = candidate;
-						bestAlignment = alignment;
+			} else {
+				if (PENALTY_CANDIDATE_BUDGET != -1) {
+					NON_ALIGNMENT_PENALTY = Aligner.tunePenalty(groundTruth, transcription, PENALTY_CANDIDATE_BUDGET);
+				}
+
+				List<AlignmentNode> alignmentNodes = Aligner.getPossibleAlignments(groundTruth, transcription);
+
+				if (PENALTY_CANDIDATE_BUDGET != -1) {
+					BigInteger total = AlignmentIterator.getTotal(alignmentNodes);
+					if (total.compareTo(BigInteger.valueOf(PENALTY_CANDIDATE_BUDGET)) > 0) {
+						System.err.println("Warning: Candidate budget of " + PENALTY_CANDIDATE_BUDGET + " cannot be met. " +
+								"The largest penalty tried, -p " + NON_ALIGNMENT_PENALTY + ", gives " + total + " candidate alignments.");
+					} else {
+						System.out.println("Tuned penalty: -p " + NON_ALIGNMENT_PENALTY + " gives " + total +
+								" candidate alignments (at most " + PENALTY_CANDIDATE_BUDGET + " allowed).");
 					}
 				}
+
+				evaluateAlignments(groundTruth, transcription, alignmentNodes);
 			}
-			System.out.println();
 
-			if (PRINT_ALIGNMENT) {
-				System.out.println("BEST ALIGNMENT         ");
-				System.out.println("==============");
+		} else {
+			// No alignment
+			System.out.println(groundTruth.evaluateTranscription(transcription));
+		}
+	}
 
-				System.out.println(getAlignmentString(groundTruth, transcription, bestAlignment));
-				System.out.println();
+	/**
+	 * Find the best of the given possible alignments of the given transcription to the given ground truth,
+	 * using the search given by the flags, and print its evaluation.
+	 *
+	 * @param groundTruth The ground truth.
+	 * @param transcription The transcription.
+	 * @param alignmentNodes The possible alignments, from {@link Aligner}.
+	 */
+	private static void evaluateAlignments(Music groundTruth, Music transcription, List<AlignmentNode> alignmentNodes) {
+		AlignmentEvaluator evaluator = new AlignmentEvaluator(groundTruth, transcription, alignmentNodes);
+
+		int threads = THREADS;
+		long maxCandidates = MAX_CANDIDATES;
+		double timeLimit = TIME_LIMIT;
+		if (PLAN_TIME_LIMIT != -1) {
+			SearchPlanner planner = new SearchPlanner(evaluator, alignmentNodes);
+			if (planner.plan(PLAN_TIME_LIMIT, THREADS) == SearchPlanner.BUDGETED) {
+				maxCandidates = planner.getCandidateLimit();
+				timeLimit = planner.getRemainingSeconds();
+			} else {
+				threads = planner.getThreads();
 			}
+			System.out.println(planner);
+		}
 
-			if (VERBOSE || PRINT_ALIGNMENT) {
-				System.out.println("BEST MV2H");
-				System.out.println("=========");
+		if (SEGMENT_DECOMPOSITION) {
+			// Approximate search
+			int segments = evaluator.evaluateSegments();
+			System.out.println();
+			if (segments > 1) {
+				System.out.println("APPROXIMATE: searched " + segments + " segments separately, evaluating " +
+						evaluator.getEvaluatedCount() + " / " + evaluator.getTotal() + " alignments. " +
+						"The best alignment may not have been found.");
 			}
 
-			System.out.println(best);
+		} else if (maxCandidates == -1 && timeLimit == -1) {
+			evaluator.evaluate(threads);
+			System.out.println();
 
 		} else {
-			// No alignment
-			System.out.println(groundTruth.evaluateTranscription(transcription));
+			// Budgeted search
+			MV2H budgetedBest = evaluator.evaluateBestFirst(maxCandidates, timeLimit);
+			System.out.println();
+			if (budgetedBest == null) {
+				System.err.println("Error: Budgeted search stopped (" + evaluator.getStopReason() + ") without evaluating " +
+						"any of the " + evaluator.getTotal() + " alignments.");
+				return;
+			}
+			System.out.println("Budgeted search stopped (" + evaluator.getStopReason() + ") after evaluating " +
+					evaluator.getEvaluatedCount() + " / " + evaluator.getTotal() + " alignments.");
+		}
+
+		if (evaluator.getSkippedCount() > 0) {
+			System.out.println("Best score reached its ceiling (" + evaluator.getCeiling().mv2h + "), so skipped " +
+					evaluator.getSkippedCount() + " / " + evaluator.getTotal() + " alignments.");
+		}
+
+		if (VERBOSE) {
+			System.out.println("Pruned " + evaluator.getPrunedCount() + " / " + evaluator.getTotal() + " alignments.");
+			System.out.println("Scored " + evaluator.getUniqueMapCount() + " unique time maps / " + evaluator.getTotal() + " alignments.");
+			System.out.println();
+		}
+
+		MV2H best = evaluator.getBest();
+		List<Integer> bestAlignment = evaluator.getBestAlignment();
+
+		if (PRINT_ALIGNMENT) {
+			System.out.println("BEST ALIGNMENT         ");
+			System.out.println("==============");
+
+			System.out.println(getAlignmentString(groundTruth, transcription, bestAlignment));
+			System.out.println();
 		}
+
+		if (VERBOSE || PRINT_ALIGNMENT) {
+			System.out.println("BEST MV2H");
+			System.out.println("=========");
+		}
+
+		System.out.println(best);
 	}
 
 	/**
@@ -271,7 +757,7 @@ public class Main {
 	 * @param alignmentToPrint The alignment List to convert to a printable String.
 	 * @return The String to print for the given alignment.
 	 */
-	private static String getAlignmentString(Music groundTruth, Music transcription, List<Integer> alignmentToPrint) {
+	public static String getAlignmentString(Music groundTruth, Music transcription, List<Integer> alignmentToPrint) {
 		StringBuilder sb = new StringBuilder("Aligned notes (transcribed -> ground truth):\n");
 
 		List<List<Note>> nonAlignedNotes = new ArrayList<List<Note>>();
@@ -443,6 +929,26 @@ public class Main {
 		sb.append("Either -g or -t (or both) must be given to evaluate, since both cannot be read from std in.\n\n");
 
 		sb.append("-p DOUBLE = Use the given value as the insertion and deletion penalty for alignment.\n");
+		sb.append("-p DOUBLE,DOUBLE,... = Evaluate with each of the given penalties, computing the DTW distances only once " +
+		          "(cannot be used with -o or -r).\n");
+		sb.append("-P INT = Use the smallest insertion and deletion penalty (searched between 0 and 64) which gives " +
+		          "at most INT candidate alignments.\n");
+		sb.append("-j INT = Use the given number of threads to evaluate candidate alignments (default 1).\n");
+		sb.append("-w INT = With -j, fill DTW alignment matrices with at least INT cells in parallel (default 1000000).\n");
+		sb.append("-b INT = Only compute the DTW alignment within INT note lists of the expected alignment path.\n");
+		sb.append("-r INT = Compute the DTW alignment coarse-to-fine, within INT note lists of the lower resolution path.\n");
+		sb.append("-n INT = Pin the DTW alignment at n-grams of INT note lists which match uniquely, and align only between them.\n");
+		sb.append("-o INT = Align online, one note list at a time, within INT note lists of the previous best cell.\n");
+		sb.append("-L INT = With -o, commit each online match once it is INT note lists old (default: the -o radius).\n");
+		sb.append("-V = Use the vectorized DTW engine (built with make vector; run java with --add-modules jdk.incubator.vector).\n");
+		sb.append("-c DIR = Cache DTW alignment matrices in DIR, and reuse them when aligning the same inputs again.\n");
+		sb.append("-m DIR = Store DTW alignment matrices off-heap, in memory-mapped temporary files in DIR, for alignments " +
+		          "too large for the Java heap.\n");
+		sb.append("-d = Search for the best alignment approximately, one segment between DTW choke points at a time.\n");
+		sb.append("-k INT = Evaluate at most INT candidate alignments, most promising first.\n");
+		sb.append("-s DOUBLE = Stop evaluating candidate alignments (most promising first) after DOUBLE seconds.\n");
+		sb.append("-l DOUBLE = Choose between an exhaustive, parallel (up to -j threads), or budgeted search " +
+		          "of the candidate alignments, to take about DOUBLE seconds.\n");
 		sb.append("-v = Use verbose printing. With -a, this will the evaluation score of every possible alignment. " +
 		          "With -A, this will also print each alignment.\n\n");
 
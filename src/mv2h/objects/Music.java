@@ -2,12 +2,15 @@ package mv2h.objects;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import mv2h.Main;
 import mv2h.objects.harmony.Chord;
@@ -19,6 +22,7 @@ import mv2h.objects.meter.Hierarchy;
 import mv2h.objects.meter.Meter;
 import mv2h.objects.meter.Tatum;
 import mv2h.tools.Aligner;
+import mv2h.tools.TimeMap;
 
 /**
  * The <code>Music</code> class represents a musical score object. It contains fields which
@@ -44,9 +48,15 @@ public class Music {
 	private List<List<Note>> notesLists = null;
 
 	/**
-	 * The voices of this score.
+	 * The voices of this score. For a score created by {@link #align(TimeMap)}, these are only
+	 * created when first needed (see {@link #getVoices()}).
 	 */
-	private final List<Voice> voices;
+	private volatile List<Voice> voices;
+
+	/**
+	 * The number of voices of this score.
+	 */
+	private final int voiceCount;
 
 	/**
 	 * The metrical structure of this score.
@@ -68,6 +78,18 @@ public class Music {
 	 */
 	private final int lastTime;
 
+	/**
+	 * Every time which is converted by {@link #align(TimeMap)}, in increasing order (see {@link #getTimes()}).
+	 * This is only created when first needed by {@link #align(int[])}.
+	 */
+	private volatile int[] timeArray;
+
+	/**
+	 * For each note (in order), the indices in {@link #timeArray} of its onset time, value onset time, and
+	 * value offset time. This is only created when first needed by {@link #align(int[])}.
+	 */
+	private volatile int[] noteTimeIndices;
+
 	/**
 	 * Create a new Music object with the given fields.
 	 * <br>
@@ -86,6 +108,7 @@ public class Music {
 		Collections.sort(notes);
 
 		this.voices = voices;
+		this.voiceCount = voices.size();
 		this.meter = meter;
 		this.keyProgression = keyProgression;
 		this.chordProgression = chordProgression;
@@ -98,6 +121,69 @@ public class Music {
 		this.meter.createGroupings();
 	}
 
+	/**
+	 * Create a new Music object with the given fields, whose voices will be created from its notes
+	 * only when they are first needed.
+	 *
+	 * @param notes {@link #notes}, which must already be sorted.
+	 * @param voiceCount {@link #voiceCount}
+	 * @param meter {@link #meter}
+	 * @param keyProgression {@link #keyProgression}
+	 * @param chordProgression {@link #chordProgression}
+	 * @param lastTime {@link #lastTime}
+	 */
+	private Music(List<Note> notes, int voiceCount, Meter meter, KeyProgression keyProgression, ChordProgression chordProgression,
+			int lastTime) {
+		this.notes = notes;
+		this.voices = null;
+		this.voiceCount = voiceCount;
+		this.meter = meter;
+		this.keyProgression = keyProgression;
+		this.chordProgression = chordProgression;
+		this.lastTime = lastTime;
+
+		this.meter.createGroupings();
+	}
+
+	/**
+	 * Get the voices of this score, creating them (and their connections) from its notes if they
+	 * have not yet been created.
+	 *
+	 * @return {@link #voices}
+	 */
+	private List<Voice> getVoices() {
+		List<Voice> voices = this.voices;
+
+		if (voices == null) {
+			voices = createVoices(notes);
+			for (Voice voice : voices) {
+				voice.createConnections();
+			}
+			this.voices = voices;
+		}
+
+		return voices;
+	}
+
+	/**
+	 * Create voices containing the given notes, without their connections.
+	 *
+	 * @param notes The notes, which are added to their voices in the given order.
+	 * @return A list of voices, up to the greatest voice index of any note.
+	 */
+	private static List<Voice> createVoices(List<Note> notes) {
+		List<Voice> voices = new ArrayList<Voice>();
+
+		for (Note note : notes) {
+			while (note.voice >= voices.size()) {
+				voices.add(new Voice());
+			}
+			voices.get(note.voice).addNote(note);
+		}
+
+		return voices;
+	}
+
 	/**
 	 * Get a list of lists of notes, sorted by onset time. Each 2nd level list
 	 * contains all notes which share an identical onset time.
@@ -147,18 +233,137 @@ public class Music {
 	 * @return The MV2H evaluation scores object.
 	 */
 	public MV2H evaluateTranscription(Music transcription) {
+		return evaluateTranscription(transcription, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * Evaluate a given transcription, treating <code>this</code> object as the ground truth,
+	 * unless its score is guaranteed to be below some threshold.
+	 * <br>
+	 * The multi-pitch, meter, and harmony scores are calculated first. If the MV2H score that
+	 * would result from perfect voice and value scores is below the threshold, null is returned
+	 * without calculating them.
+	 *
+	 * @param transcription The transcription to evaluate.
+	 * @param threshold The MV2H score below which evaluation can be stopped early.
+	 *
+	 * @return The MV2H evaluation scores object, or null if its score is guaranteed to be below
+	 * the threshold.
+	 */
+	public MV2H evaluateTranscription(Music transcription, double threshold) {
+		return evaluateTranscription(transcription, threshold, evaluateMeter(transcription), evaluateHarmony(transcription));
+	}
+
+	/**
+	 * Get an upper bound on each score that any alignment of the given transcription can achieve,
+	 * treating <code>this</code> object as the ground truth. These do not depend on the alignment:
+	 * <ul>
+	 * <li>Multi-pitch: every note of the smaller of the two pieces is matched.</li>
+	 * <li>Meter: perfect, unless the transcription has no tatums or no hierarchies, in which case it
+	 * has no groupings under any alignment, and its score is fixed.</li>
+	 * <li>Harmony: a perfect key and chord score, except that if either piece has no keys (or chords),
+	 * the key (or chord) score is fixed.</li>
+	 * <li>Voice and value: perfect.</li>
+	 * </ul>
+	 *
+	 * @param transcription The transcription, before alignment.
+	 * @return The upper bound of each score.
+	 */
+	public MV2H getScoreCeiling(Music transcription) {
+		int matches = Math.min(notes.size(), transcription.notes.size());
+		double multiPitchF1 = Main.getF1(matches, transcription.notes.size() - matches, notes.size() - matches);
+
+		double meterF1 = 1.0;
+		if (transcription.meter.getTatums().isEmpty() || transcription.meter.getHierarchies().isEmpty()) {
+			meterF1 = evaluateMeter(transcription);
+		}
+
+		double keyScore = keyProgression.getKeys().isEmpty() || transcription.keyProgression.getKeys().isEmpty() ?
+				transcription.keyProgression.getScore(keyProgression, lastTime) : 1.0;
+		double progressionScore = chordProgression.getChords().isEmpty() || transcription.chordProgression.getChords().isEmpty() ?
+				transcription.chordProgression.getScore(chordProgression, lastTime) : 1.0;
+
+		double harmonyScore = (keyScore + progressionScore) / 2;
+		if (Double.isNaN(progressionScore)) {
+			harmonyScore = keyScore;
+		}
+
+		if (Double.isNaN(keyScore)) {
+			harmonyScore = progressionScore;
+		}
+
+		if (Double.isNaN(harmonyScore)) {
+			harmonyScore = 0.0;
+		}
+
+		return new MV2H(multiPitchF1, 1.0, meterF1, 1.0, harmonyScore);
+	}
+
+	/**
+	 * Get the meter score of a given transcription, treating <code>this</code> object as the ground truth.
+	 *
+	 * @param transcription The transcription to evaluate.
+	 * @return The meter F-measure.
+	 */
+	public double evaluateMeter(Music transcription) {
+		return transcription.meter.getF1(meter);
+	}
+
+	/**
+	 * Get the harmony score of a given transcription, treating <code>this</code> object as the ground truth.
+	 *
+	 * @param transcription The transcription to evaluate.
+	 * @return The harmony score.
+	 */
+	public double evaluateHarmony(Music transcription) {
+		double keyScore = transcription.keyProgression.getScore(keyProgression, lastTime);
+		double progressionScore = transcription.chordProgression.getScore(chordProgression, lastTime);
+
+		double harmonyScore = (keyScore + progressionScore) / 2;
+		if (Double.isNaN(progressionScore)) {
+			harmonyScore = keyScore;
+		}
+
+		if (Double.isNaN(keyScore)) {
+			harmonyScore = progressionScore;
+		}
+
+		if (Double.isNaN(harmonyScore)) {
+			harmonyScore = 0.0;
+		}
+
+		return harmonyScore;
+	}
+
+	/**
+	 * Evaluate a given transcription, treating <code>this</code> object as the ground truth,
+	 * given its already calculated meter and harmony scores (see {@link #evaluateMeter(Music)}
+	 * and {@link #evaluateHarmony(Music)}), unless its score is guaranteed to be below some threshold.
+	 *
+	 * @param transcription The transcription to evaluate.
+	 * @param threshold The MV2H score below which evaluation can be stopped early.
+	 * @param meterF1 The transcription's meter score.
+	 * @param harmonyScore The transcription's harmony score.
+	 *
+	 * @return The MV2H evaluation scores object, or null if its score is guaranteed to be below
+	 * the threshold.
+	 */
+	public MV2H evaluateTranscription(Music transcription, double threshold, double meterF1, double harmonyScore) {
+		// The original ground truth voices
+		List<Voice> voices = getVoices();
+
 		// Tracking objects for notes
 		List<Note> transcriptionNotes = new ArrayList<Note>(transcription.notes);
 		List<Note> groundTruthNotes = new ArrayList<Note>(notes);
 
 		// Tracking lists for voices, which will include only matched notes
-		List<Voice> transcriptionVoices = new ArrayList<Voice>(transcription.voices.size());
-		for (int i = 0; i < transcription.voices.size(); i++) {
+		List<Voice> transcriptionVoices = new ArrayList<Voice>(transcription.voiceCount);
+		for (int i = 0; i < transcription.voiceCount; i++) {
 			transcriptionVoices.add(new Voice());
 		}
 
-		List<Voice> groundTruthVoices = new ArrayList<Voice>(voices.size());
-		for (int i = 0; i < voices.size(); i++) {
+		List<Voice> groundTruthVoices = new ArrayList<Voice>(voiceCount);
+		for (int i = 0; i < voiceCount; i++) {
 			groundTruthVoices.add(new Voice());
 		}
 
@@ -211,6 +416,11 @@ public class Music {
 
 		double multiPitchF1 = Main.getF1(multiPitchTruePositives, multiPitchFalsePositives, multiPitchFalseNegatives);
 
+		// Stop early if even perfect voice and value scores cannot reach the threshold
+		if (new MV2H(multiPitchF1, 1.0, meterF1, 1.0, harmonyScore).mv2h < threshold) {
+			return null;
+		}
+
 		// Make voice connections
 		for (Voice voice : transcriptionVoices) {
 			voice.createConnections();
@@ -325,10 +535,6 @@ public class Music {
 		double voiceF1 = Main.getF1(voiceTruePositives, voiceFalsePositives, voiceFalseNegatives);
 
 
-		// Meter
-		double meterF1 = transcription.meter.getF1(meter);
-
-
 		// Note value (check only GT matches and GT voice matches)
 		double valueScoreSum = 0.0;
 		for (Note transcriptionNote : valueCheckNotes) {
@@ -339,24 +545,6 @@ public class Music {
 			valueScore = 0.0;
 		}
 
-
-		// Harmony
-		double keyScore = transcription.keyProgression.getScore(keyProgression, lastTime);
-		double progressionScore = transcription.chordProgression.getScore(chordProgression, lastTime);
-
-		double harmonyScore = (keyScore + progressionScore) / 2;
-		if (Double.isNaN(progressionScore)) {
-			harmonyScore = keyScore;
-		}
-
-		if (Double.isNaN(keyScore)) {
-			harmonyScore = progressionScore;
-		}
-
-		if (Double.isNaN(harmonyScore)) {
-			harmonyScore = 0.0;
-		}
-
 		// MV2H
 		return new MV2H(multiPitchF1, voiceF1, meterF1, valueScore, harmonyScore);
 	}
@@ -373,56 +561,296 @@ public class Music {
 	 * @return A new Music object with the given alignment.
 	 */
 	public Music align(Music gt, List<Integer> alignment) {
-		List<Note> newNotes = new ArrayList<Note>(notes.size());
-		List<Voice> newVoices = new ArrayList<Voice>(voices.size());
+		return align(Aligner.getTimeMap(gt, this, alignment));
+	}
 
-		Map<Integer, Integer> alignedTimes = new HashMap<Integer, Integer>();
+	/**
+	 * Get a new Music object whose times are mapped to the corresponding ground truth's
+	 * times given a compiled alignment.
+	 * <br>
+	 * If the time map preserves the order of this score's notes (as any strictly increasing map does),
+	 * the new score reuses that order rather than re-sorting its notes, and its voices (which are not
+	 * needed to evaluate it as a transcription) are only created if they are needed. Otherwise, the
+	 * new score is created in full.
+	 *
+	 * @param timeMap The alignment to re-map with, from {@link Aligner#getTimeMap(Music, Music, List)}.
+	 *
+	 * @return A new Music object with the given alignment.
+	 */
+	public Music align(TimeMap timeMap) {
+		return align(timeMap, null);
+	}
+
+	/**
+	 * Get a new Music object whose times are mapped to the corresponding ground truth's times, given
+	 * the already converted value of each of this score's times. This gives the same result as
+	 * {@link #align(TimeMap)} with the time map which converts them, but the notes' times are looked up
+	 * rather than converted again, so that a caller which keeps the converted times between similar
+	 * alignments need only convert those which have changed.
+	 *
+	 * @param alignedTimes The converted value of each time from {@link #getTimes()}, in the same order.
+	 *
+	 * @return A new Music object with the given converted times.
+	 */
+	public Music align(int[] alignedTimes) {
+		return align(null, alignedTimes);
+	}
+
+	/**
+	 * Get a new Music object whose times are mapped to the corresponding ground truth's times, either
+	 * by a time map or by already converted times. See {@link #align(TimeMap)} and {@link #align(int[])}.
+	 *
+	 * @param timeMap The alignment to re-map with, or null to use alignedTimes.
+	 * @param alignedTimes The converted value of each time from {@link #getTimes()}, used if timeMap is null.
+	 *
+	 * @return A new Music object with the given alignment.
+	 */
+	private Music align(TimeMap timeMap, int[] alignedTimes) {
+		List<Note> newNotes = new ArrayList<Note>(notes.size());
+		boolean sorted = true;
+		int newVoiceCount = 0;
+		int[] indices = timeMap == null ? getNoteTimeIndices() : null;
 
 		// Convert each note into a new note
-		for (Note note : notes) {
-			newNotes.add(new Note(
-					note.pitch,
-					Aligner.convertTime(note.onsetTime, gt, this, alignment, alignedTimes),
-					Aligner.convertTime(note.valueOnsetTime, gt, this, alignment, alignedTimes),
-					Aligner.convertTime(note.valueOffsetTime, gt, this, alignment, alignedTimes),
-					note.voice));
-
-			while (note.voice >= newVoices.size()) {
-				newVoices.add(new Voice());
+		for (int i = 0; i < notes.size(); i++) {
+			Note note = notes.get(i);
+			Note newNote;
+			if (timeMap != null) {
+				newNote = new Note(
+						note.pitch,
+						timeMap.convert(note.onsetTime),
+						timeMap.convert(note.valueOnsetTime),
+						timeMap.convert(note.valueOffsetTime),
+						note.voice);
+
+			} else {
+				// Look up the already converted times
+				newNote = new Note(
+						note.pitch,
+						alignedTimes[indices[3 * i]],
+						alignedTimes[indices[3 * i + 1]],
+						alignedTimes[indices[3 * i + 2]],
+						note.voice);
 			}
-			newVoices.get(note.voice).addNote(newNotes.get(newNotes.size() - 1));
+
+			if (sorted && !newNotes.isEmpty() && newNotes.get(newNotes.size() - 1).compareTo(newNote) > 0) {
+				sorted = false;
+			}
+
+			newNotes.add(newNote);
+			newVoiceCount = Math.max(newVoiceCount, note.voice + 1);
 		}
 
 		// Convert the metrical structure times
-		Meter newMeter = new Meter(Aligner.convertTime(0, gt, this, alignment, alignedTimes));
+		Meter newMeter = new Meter(convert(0, timeMap, alignedTimes));
 		List<Grouping> newGroupings = newMeter.getGroupings();
 		for (Hierarchy h : meter.getHierarchies()) {
 			newMeter.addHierarchy(new Hierarchy(h.beatsPerBar, h.subBeatsPerBeat, h.tatumsPerSubBeat, h.anacrusisLengthTatums,
-					Aligner.convertTime(h.time, gt, this, alignment, alignedTimes)));
+					convert(h.time, timeMap, alignedTimes)));
 		}
 		for (Tatum tatum : meter.getTatums()) {
-			newMeter.addTatum(new Tatum(Aligner.convertTime(tatum.time, gt, this, alignment, alignedTimes)));
+			newMeter.addTatum(new Tatum(convert(tatum.time, timeMap, alignedTimes)));
 		}
 		for (Grouping grouping : meter.getGroupings()) {
-			newGroupings.add(new Grouping(Aligner.convertTime(grouping.startTime, gt, this, alignment, alignedTimes),
-					Aligner.convertTime(grouping.endTime, gt, this, alignment, alignedTimes)));
+			newGroupings.add(new Grouping(convert(grouping.startTime, timeMap, alignedTimes),
+					convert(grouping.endTime, timeMap, alignedTimes)));
 		}
 
 		// Convert the key change times
 		KeyProgression newKeyProgression = new KeyProgression();
 		for (Key key : keyProgression.getKeys()) {
-			newKeyProgression.addKey(new Key(key.tonic, key.isMajor, Aligner.convertTime(key.time, gt, this, alignment, alignedTimes)));
+			newKeyProgression.addKey(new Key(key.tonic, key.isMajor, convert(key.time, timeMap, alignedTimes)));
 		}
 
 		// Convert the chord change times
 		ChordProgression newChordProgression = new ChordProgression();
 		for (Chord chord : chordProgression.getChords()) {
-			newChordProgression.addChord(new Chord(chord.chord, Aligner.convertTime(chord.time, gt, this, alignment, alignedTimes)));
+			newChordProgression.addChord(new Chord(chord.chord, convert(chord.time, timeMap, alignedTimes)));
 		}
 
 		// Create and return the new Music object
-		return new Music(newNotes, newVoices, newMeter, newKeyProgression, newChordProgression,
-				         Aligner.convertTime(lastTime, gt, this, alignment, alignedTimes));
+		if (sorted) {
+			return new Music(newNotes, newVoiceCount, newMeter, newKeyProgression, newChordProgression,
+					convert(lastTime, timeMap, alignedTimes));
+		}
+
+		return new Music(newNotes, createVoices(newNotes), newMeter, newKeyProgression, newChordProgression,
+				         convert(lastTime, timeMap, alignedTimes));
+	}
+
+	/**
+	 * Convert a time of this score, either by a time map or by already converted times.
+	 *
+	 * @param time The time to convert, which must be one of {@link #getTimes()}.
+	 * @param timeMap The time map to convert with, or null to use alignedTimes.
+	 * @param alignedTimes The converted value of each time from {@link #getTimes()}, used if timeMap is null.
+	 *
+	 * @return The converted time.
+	 */
+	private int convert(int time, TimeMap timeMap, int[] alignedTimes) {
+		if (timeMap != null) {
+			return timeMap.convert(time);
+		}
+
+		return alignedTimes[Arrays.binarySearch(getTimeArray(), time)];
+	}
+
+	/**
+	 * Get every time which is converted by {@link #align(TimeMap)}, creating {@link #timeArray} if
+	 * it has not yet been created.
+	 *
+	 * @return {@link #timeArray}
+	 */
+	private int[] getTimeArray() {
+		int[] timeArray = this.timeArray;
+
+		if (timeArray == null) {
+			SortedSet<Integer> times = getTimes();
+			timeArray = new int[times.size()];
+			int i = 0;
+			for (int time : times) {
+				timeArray[i++] = time;
+			}
+			this.timeArray = timeArray;
+		}
+
+		return timeArray;
+	}
+
+	/**
+	 * Get the indices of each note's times in {@link #timeArray}, creating {@link #noteTimeIndices} if
+	 * they have not yet been created.
+	 *
+	 * @return {@link #noteTimeIndices}
+	 */
+	private int[] getNoteTimeIndices() {
+		int[] noteTimeIndices = this.noteTimeIndices;
+
+		if (noteTimeIndices == null) {
+			int[] timeArray = getTimeArray();
+			noteTimeIndices = new int[3 * notes.size()];
+			for (int i = 0; i < notes.size(); i++) {
+				Note note = notes.get(i);
+				noteTimeIndices[3 * i] = Arrays.binarySearch(timeArray, note.onsetTime);
+				noteTimeIndices[3 * i + 1] = Arrays.binarySearch(timeArray, note.valueOnsetTime);
+				noteTimeIndices[3 * i + 2] = Arrays.binarySearch(timeArray, note.valueOffsetTime);
+			}
+			this.noteTimeIndices = noteTimeIndices;
+		}
+
+		return noteTimeIndices;
+	}
+
+	/**
+	 * Get a new Music object containing only the parts of this score up to a given time: the notes
+	 * whose value onset is at or before it, and the tatums, hierarchies, keys, and chords at or before it.
+	 * Notes which continue past the time are kept whole. The groupings are re-created from the
+	 * remaining tatums and hierarchies.
+	 *
+	 * @param time The last time to keep.
+	 *
+	 * @return A new Music object, ending at the given time (or at this score's last time, if earlier).
+	 */
+	public Music truncate(int time) {
+		List<Note> newNotes = new ArrayList<Note>();
+		for (Note note : notes) {
+			if (note.valueOnsetTime > time) {
+				break;
+			}
+			newNotes.add(note);
+		}
+
+		Meter newMeter = new Meter();
+		for (Hierarchy h : meter.getHierarchies()) {
+			if (h.time <= time) {
+				newMeter.addHierarchy(h);
+			}
+		}
+		for (Tatum tatum : meter.getTatums()) {
+			if (tatum.time <= time) {
+				newMeter.addTatum(tatum);
+			}
+		}
+
+		KeyProgression newKeyProgression = new KeyProgression();
+		for (Key key : keyProgression.getKeys()) {
+			if (key.time <= time) {
+				newKeyProgression.addKey(key);
+			}
+		}
+
+		ChordProgression newChordProgression = new ChordProgression();
+		for (Chord chord : chordProgression.getChords()) {
+			if (chord.time <= time) {
+				newChordProgression.addChord(chord);
+			}
+		}
+
+		return new Music(newNotes, voiceCount, newMeter, newKeyProgression, newChordProgression,
+				Math.min(lastTime, time));
+	}
+
+	/**
+	 * Get every time which is converted by {@link #align(Music, List)}.
+	 *
+	 * @return The times of this score's notes, meter, harmony, and its last time.
+	 */
+	public SortedSet<Integer> getTimes() {
+		SortedSet<Integer> times = new TreeSet<Integer>();
+
+		for (Note note : notes) {
+			times.add(note.onsetTime);
+			times.add(note.valueOnsetTime);
+			times.add(note.valueOffsetTime);
+		}
+		times.addAll(getMeterTimes());
+		times.addAll(getHarmonyTimes());
+		times.add(lastTime);
+
+		return times;
+	}
+
+	/**
+	 * Get the times which are converted by {@link #align(Music, List)} to create the aligned meter.
+	 * The meter score of an aligned score depends only on these converted times.
+	 *
+	 * @return The times of this score's meter.
+	 */
+	public SortedSet<Integer> getMeterTimes() {
+		SortedSet<Integer> times = new TreeSet<Integer>();
+
+		times.add(0);
+		for (Hierarchy h : meter.getHierarchies()) {
+			times.add(h.time);
+		}
+		for (Tatum tatum : meter.getTatums()) {
+			times.add(tatum.time);
+		}
+		for (Grouping grouping : meter.getGroupings()) {
+			times.add(grouping.startTime);
+			times.add(grouping.endTime);
+		}
+
+		return times;
+	}
+
+	/**
+	 * Get the times which are converted by {@link #align(Music, List)} to create the aligned key
+	 * and chord progressions. The harmony score of an aligned score depends only on these converted times.
+	 *
+	 * @return The times of this score's key and chord changes.
+	 */
+	public SortedSet<Integer> getHarmonyTimes() {
+		SortedSet<Integer> times = new TreeSet<Integer>();
+
+		for (Key key : keyProgression.getKeys()) {
+			times.add(key.time);
+		}
+		for (Chord chord : chordProgression.getChords()) {
+			times.add(chord.time);
+		}
+
+		return times;
 	}
 
 	/**
@@ -200,7 +200,8 @@ public class Meter {
 	 */
 	public double getF1(Meter groundTruth) {
 		List<Grouping> transcriptionGroupings = getGroupings();
-		List<Grouping> groundTruthGroupings = groundTruth.getGroupings();
+		// Copy the ground truth groupings, since matched ones are removed below
+		List<Grouping> groundTruthGroupings = new ArrayList<Grouping>(groundTruth.getGroupings());
 
 		int truePositives = 0;
 		for (Grouping transcriptionGrouping : transcriptionGroupings) {
@@ -1,10 +1,12 @@
 package mv2h.tools;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import mv2h.Main;
 import mv2h.objects.Music;
@@ -15,11 +17,33 @@ import mv2h.objects.Note;
  * All of its methods are static, and it uses a heuristic-based dynamic time warp to get a number of
  * candidate alignments {@link #getPossibleAlignments(Music, Music)}, and can be used to convert
  * the times of a transcription based on one of those alignments
- * {@link #convertTime(int, Music, Music, List)}.
+ * {@link #getTimeMap(Music, Music, List)}.
  *
  * @author Andrew McLeod
  */
 public class Aligner {
+	/**
+	 * The number of rows and columns of each tile of an alignment matrix which is filled in parallel.
+	 */
+	private static final int DTW_TILE_SIZE = 256;
+
+	/**
+	 * The largest penalty tried by {@link #tunePenalty(Music, Music, long)}.
+	 */
+	private static final double MAX_TUNED_PENALTY = 64.0;
+
+	/**
+	 * The number of bisection steps taken by {@link #tunePenalty(Music, Music, long)}. The tuned penalty
+	 * is a multiple of its upper bound divided by 2 to this power.
+	 */
+	private static final int PENALTY_TUNING_STEPS = 10;
+
+	/**
+	 * The previous row of the first row of each segment starting at an anchor (see
+	 * {@link #fillSegment(AlignmentMatrix, double[][], int, int, boolean, DtwEngine, double)}), containing only
+	 * the cell before the anchor, with a distance of 0.
+	 */
+	private static final double[] ANCHOR_ROW = new double[] {0.0};
 
 	/**
 	 * Get all possible alignments of the given ground truth and transcription.
@@ -32,64 +56,358 @@ public class Aligner {
 	 * note to which it is aligned, or -1 if it was not aligned with any transcription note.
 	 */
 	public static List<AlignmentNode> getPossibleAlignments(Music gt, Music m) {
-		List<List<List<Integer>>> previousCells = getAlignmentMatrix(gt.getNoteLists(), m.getNoteLists());
+		AlignmentMatrix matrix = getAlignmentMatrix(gt.getNoteLists(), m.getNoteLists());
+
+		return getPossibleAlignmentsFromMatrix(matrix);
+	}
+
+	/**
+	 * Get all possible alignments of the given ground truth and transcription for each of the given
+	 * insertion and deletion penalties, from a single pass of distance computations. The local distance
+	 * of each cell within the band (see {@link #getBand(List, List, int)}) is computed only once, and
+	 * shared by the DTW recurrence of every penalty. If {@link Main#THREADS} is greater than 1, the
+	 * recurrences of different penalties are computed in parallel.
+	 * <br>
+	 * Each penalty's alignments are identical to those given by {@link #getPossibleAlignments(Music, Music)}
+	 * with {@link Main#NON_ALIGNMENT_PENALTY} set to it (including with anchors, see {@link Main#ANCHOR_LENGTH}).
+	 * This cannot be used with {@link Main#MULTI_RESOLUTION_RADIUS}, since that band depends on the penalty. If {@link Main#CACHE_DIRECTORY} is set, each penalty's matrix
+	 * is loaded from the {@link AlignmentMatrixCache} there if possible, and saved there otherwise.
+	 * If {@link Main#OFF_HEAP_DIRECTORY} is set, the local distances are not shared, but recomputed a row
+	 * at a time for each penalty, so that they are never all in the heap at once.
+	 *
+	 * @param gt The ground truth.
+	 * @param m The transcription.
+	 * @param penalties The insertion and deletion penalties.
+	 *
+	 * @return For each penalty, a List of all possible alignments of the transcription to the ground truth,
+	 * as in {@link #getPossibleAlignments(Music, Music)}.
+	 */
+	public static List<List<AlignmentNode>> getPossibleAlignments(Music gt, Music m, double[] penalties) {
+		List<List<Note>> gtNotes = gt.getNoteLists();
+		List<List<Note>> mNotes = m.getNoteLists();
+
+		AlignmentMatrix[] matrices = new AlignmentMatrix[penalties.length];
+		String[] keys = new String[penalties.length];
+		AlignmentMatrixCache cache = null;
+		if (Main.CACHE_DIRECTORY != null) {
+			cache = new AlignmentMatrixCache(Main.CACHE_DIRECTORY);
+			for (int p = 0; p < penalties.length; p++) {
+				keys[p] = AlignmentMatrixCache.getKey(gtNotes, mNotes, penalties[p], Main.DTW_BAND_RADIUS,
+						Main.MULTI_RESOLUTION_RADIUS, Main.ANCHOR_LENGTH);
+				matrices[p] = cache.load(keys[p], gtNotes.size() + 1, mNotes.size() + 1);
+				if (matrices[p] != null && Main.VERBOSE) {
+					System.out.println("DTW matrix for penalty " + penalties[p] + " loaded from cache: " + cache.getFile(keys[p]));
+				}
+			}
+		}
 
-		List<List<List<AlignmentNode>>> alignmentCache = new ArrayList<List<List<AlignmentNode>>>(previousCells.size());
-		for (int i = 0; i < previousCells.size(); i++) {
-			List<List<AlignmentNode>> nestedList = new ArrayList<List<AlignmentNode>>(previousCells.get(0).size());
-			for (int j = 0; j < previousCells.get(0).size(); j++) {
-				nestedList.add(new ArrayList<AlignmentNode>());
+		List<PenaltyTask> tasks = new ArrayList<PenaltyTask>();
+		int[][] band = null;
+		int[] anchorRows = null;
+		PitchHistogram[] gtHistograms = null;
+		PitchHistogram[] mHistograms = null;
+		double[][] localDistances = null;
+		DtwEngine engine = null;
+		for (int p = 0; p < penalties.length; p++) {
+			if (matrices[p] != null) {
+				continue;
 			}
-			alignmentCache.add(nestedList);
+
+			if (engine == null) {
+				if (Main.ANCHOR_LENGTH > 0) {
+					int[][] anchors = getAnchors(gtNotes, mNotes);
+					band = getAnchorBand(anchors, gtNotes.size() + 1, mNotes.size() + 1);
+					anchorRows = anchors[0];
+				} else {
+					band = getBand(gtNotes, mNotes, Main.DTW_BAND_RADIUS);
+					anchorRows = new int[0];
+				}
+				gtHistograms = getPitchHistograms(gtNotes);
+				mHistograms = getPitchHistograms(mNotes);
+				if (Main.OFF_HEAP_DIRECTORY == null) {
+					localDistances = getLocalDistances(gtHistograms, mHistograms, band);
+				}
+				engine = getDtwEngine();
+			}
+			tasks.add(new PenaltyTask(matrices, p, gtHistograms, mHistograms, localDistances, band, anchorRows, mNotes.size() + 1,
+					engine, penalties[p]));
 		}
 
-		return getPossibleAlignmentsFromMatrix(previousCells.size() - 1, previousCells.get(0).size() - 1, previousCells, alignmentCache);
+		if (Main.THREADS > 1 && tasks.size() > 1) {
+			ForkJoinPool pool = new ForkJoinPool(Math.min(Main.THREADS, tasks.size()));
+			try {
+				pool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(tasks);
+					}
+				});
+
+			} finally {
+				pool.shutdown();
+			}
+
+		} else {
+			for (PenaltyTask task : tasks) {
+				task.compute();
+			}
+		}
+
+		if (!tasks.isEmpty() && Main.VERBOSE) {
+			System.out.println("DTW cells evaluated: " + getCellsEvaluated(matrices[tasks.get(0).index]) + " / " +
+					((long) gtNotes.size() * mNotes.size()) + ", shared by " + tasks.size() + " penalties");
+		}
+
+		if (cache != null) {
+			for (PenaltyTask task : tasks) {
+				cache.save(keys[task.index], matrices[task.index]);
+				if (Main.VERBOSE) {
+					System.out.println("DTW matrix for penalty " + penalties[task.index] + " saved to cache: " +
+							cache.getFile(keys[task.index]));
+				}
+			}
+		}
+
+		List<List<AlignmentNode>> alignments = new ArrayList<List<AlignmentNode>>(penalties.length);
+		for (AlignmentMatrix matrix : matrices) {
+			alignments.add(getPossibleAlignmentsFromMatrix(matrix));
+		}
+		return alignments;
 	}
 
 	/**
-	 * A recursive function to get all of the possible alignments from the previousCells
-	 * pointers returned by the heuristic-based DTW in
-	 * {@link #getAlignmentMatrix(List, List)}, up to matrix indices i, j.
+	 * Find the smallest insertion and deletion penalty for which the given ground truth and transcription
+	 * have no more than the given number of possible alignments. Only the DTW is performed for each penalty tried, and the alignments are counted directly
+	 * from the alignment matrix (see {@link #countAlignments(AlignmentMatrix)}), without building them.
+	 * <br>
+	 * The penalty is first doubled from 1 until the alignments fit (up to {@link #MAX_TUNED_PENALTY}),
+	 * and then bisected down towards 0 in {@link #PENALTY_TUNING_STEPS} steps. This assumes that the number
+	 * of alignments decreases as the penalty increases, which is usually, but not always, true, so the
+	 * penalty found is the smallest which fits of those tried. If even {@link #MAX_TUNED_PENALTY} gives too many
+	 * alignments, no bisection is performed.
+	 * <br>
+	 * {@link Main#NON_ALIGNMENT_PENALTY} is not changed, since each penalty tried is passed to the DTW directly.
 	 *
-	 * @param i The first index, representing the transcribed note index.
-	 * @param j The second index, representing the ground truth note index.
-	 * @param previousCells The previous cells matrix from {@link #getAlignmentMatrix(List, List)}.
+	 * @param gt The ground truth.
+	 * @param m The transcription.
+	 * @param maxCandidates The maximum number of possible alignments.
 	 *
-	 * @return A List of all possible alignments given the previous cells matrix, up to notes i, j.
-	 * An alignment is a list containing, for each ground truth note list, the index of the transcription
-	 * note list to which it is aligned, or -1 if it was not aligned with any transcription note.
+	 * @return The penalty found, or {@link #MAX_TUNED_PENALTY} if even that gives too many alignments.
 	 */
-	private static List<AlignmentNode> getPossibleAlignmentsFromMatrix(int i, int j, List<List<List<Integer>>> previousCells, List<List<List<AlignmentNode>>> alignmentCache) {
-		List<AlignmentNode> alignments = alignmentCache.get(i).get(j);
-		if (!alignments.isEmpty()) {
-			return alignments;
+	public static double tunePenalty(Music gt, Music m, long maxCandidates) {
+		List<List<Note>> gtNotes = gt.getNoteLists();
+		List<List<Note>> mNotes = m.getNoteLists();
+
+		double high = 1.0;
+		long count;
+		while ((count = countAlignments(gtNotes, mNotes, high)) > maxCandidates && high < MAX_TUNED_PENALTY) {
+			high *= 2;
 		}
 
-		// Base case. we are at the beginning and nothing else needs to be aligned.
-		if (i == 0 && j == 0) {
-			return alignments;
+		if (count > maxCandidates) {
+			// No penalty fits the budget
+			return high;
 		}
 
-		for (int previousCell : previousCells.get(i).get(j)) {
-			if (previousCell == -1) {
-				// This transcription note was aligned with nothing in the ground truth.
-				alignments.add(new AlignmentNode(getPossibleAlignmentsFromMatrix(i - 1, j, previousCells, alignmentCache), -1));
+		double low = 0.0;
+		for (int step = 0; step < PENALTY_TUNING_STEPS; step++) {
+			double middle = (low + high) / 2;
+			if (countAlignments(gtNotes, mNotes, middle) <= maxCandidates) {
+				high = middle;
+			} else {
+				low = middle;
+			}
+		}
+
+		return high;
+	}
 
-			} else if (previousCell == 1) {
-				// This ground truth note was aligned with nothing in the transcription.
-				for (AlignmentNode prev : getPossibleAlignmentsFromMatrix(i, j - 1, previousCells, alignmentCache)) {
-					if (prev.value != -1) {
-						alignments.add(prev);
+	/**
+	 * Count the possible alignments of the given note lists with the given insertion and deletion penalty.
+	 *
+	 * @param gtNotes The ground truth note lists, split by onset time.
+	 * @param mNotes The transcribed note lists, split by onset time.
+	 * @param penalty The insertion and deletion penalty.
+	 *
+	 * @return The number of possible alignments, or {@link Long#MAX_VALUE} if that does not fit in a long.
+	 */
+	private static long countAlignments(List<List<Note>> gtNotes, List<List<Note>> mNotes, double penalty) {
+		long count = countAlignments(computeAlignmentMatrix(gtNotes, mNotes, penalty));
+
+		if (Main.VERBOSE) {
+			System.out.println("Penalty " + penalty + ": " + (count == Long.MAX_VALUE ? "over " : "") + count + " possible alignments");
+		}
+
+		return count;
+	}
+
+	/**
+	 * Count the possible alignments given by the previous cells of the given alignment matrix. This gives
+	 * the same total as the {@link AlignmentNode}s built by {@link #getPossibleAlignmentsFromMatrix(AlignmentMatrix)},
+	 * in a single pass over the matrix's band, without building them.
+	 * <br>
+	 * For each cell, the counts of the alignments of its nodes are kept in two parts: those of nodes
+	 * with no aligned transcription note list, and those of the others. Only the others are passed on
+	 * to the next column.
+	 *
+	 * @param matrix The alignment matrix.
+	 *
+	 * @return The number of possible alignments, or {@link Long#MAX_VALUE} if that does not fit in a long.
+	 */
+	private static long countAlignments(AlignmentMatrix matrix) {
+		long[] previousUnaligned = null;
+		long[] previousAligned = null;
+		int previousStart = 0;
+
+		for (int i = 0; i < matrix.rows; i++) {
+			int start = matrix.getRowStart(i);
+			long[] unaligned = new long[matrix.getRowEnd(i) - start + 1];
+			long[] aligned = new long[unaligned.length];
+
+			for (int j = start; j <= matrix.getRowEnd(i); j++) {
+				byte previousCells = matrix.getPreviousCells(i, j);
+
+				if ((previousCells & AlignmentMatrix.PREVIOUS_ROW) != 0) {
+					unaligned[j - start] = Math.max(addCounts(previousUnaligned[j - previousStart],
+							previousAligned[j - previousStart]), 1L);
+				}
+
+				if ((previousCells & AlignmentMatrix.PREVIOUS_COLUMN) != 0) {
+					aligned[j - start] = aligned[j - 1 - start];
+				}
+
+				if ((previousCells & AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN) != 0) {
+					aligned[j - start] = addCounts(aligned[j - start], Math.max(addCounts(
+							previousUnaligned[j - 1 - previousStart], previousAligned[j - 1 - previousStart]), 1L));
+				}
+			}
+
+			previousUnaligned = unaligned;
+			previousAligned = aligned;
+			previousStart = start;
+		}
+
+		return addCounts(previousUnaligned[previousUnaligned.length - 1], previousAligned[previousAligned.length - 1]);
+	}
+
+	/**
+	 * Add two alignment counts, saturating at {@link Long#MAX_VALUE}.
+	 *
+	 * @param first The first count.
+	 * @param second The second count.
+	 *
+	 * @return Their sum, or {@link Long#MAX_VALUE} if that does not fit in a long.
+	 */
+	private static long addCounts(long first, long second) {
+		return first > Long.MAX_VALUE - second ? Long.MAX_VALUE : first + second;
+	}
+
+	/**
+	 * Get all of the possible alignments from the previousCells pointers returned by the
+	 * heuristic-based DTW in {@link #getAlignmentMatrix(List, List)}.
+	 * <br>
+	 * This is done without recursion (so that very long pieces do not overflow the stack), in
+	 * two passes over the matrix's band. First, the cells from which the final cell can be reached
+	 * are marked (see {@link #markReachableCells(AlignmentMatrix)}). Then, the alignments up to each
+	 * marked cell are built in row-major order, so that the alignments of a cell's previous cells are
+	 * always already built. Only those of the current and previous rows are kept, so that (apart from
+	 * the alignments themselves) the heap used grows with the band's width rather than its size.
+	 *
+	 * @param matrix The alignment matrix from {@link #getAlignmentMatrix(List, List)}.
+	 *
+	 * @return A List of all possible alignments given the previous cells matrix.
+	 * An alignment is a list containing, for each ground truth note list, the index of the transcription
+	 * note list to which it is aligned, or -1 if it was not aligned with any transcription note.
+	 */
+	private static List<AlignmentNode> getPossibleAlignmentsFromMatrix(AlignmentMatrix matrix) {
+		markReachableCells(matrix);
+
+		// The alignments of each marked cell of the previous and current rows, indexed by column offset
+		// from the row's start. A null entry means the cell has not been built.
+		List<List<AlignmentNode>> previousAlignments = null;
+		int previousStart = 0;
+
+		for (int i = 0; i < matrix.rows; i++) {
+			int start = matrix.getRowStart(i);
+			List<List<AlignmentNode>> rowAlignments = new ArrayList<List<AlignmentNode>>(
+					Collections.nCopies(matrix.getRowEnd(i) - start + 1, (List<AlignmentNode>) null));
+
+			for (int j = start; j <= matrix.getRowEnd(i); j++) {
+				if (!matrix.isReachable(i, j)) {
+					continue;
+				}
+
+				// Base case. we are at the beginning and nothing else needs to be aligned.
+				List<AlignmentNode> alignments = new ArrayList<AlignmentNode>();
+				rowAlignments.set(j - start, alignments);
+				if (i == 0 && j == 0) {
+					continue;
+				}
+
+				byte previousCells = matrix.getPreviousCells(i, j);
+
+				if ((previousCells & AlignmentMatrix.PREVIOUS_ROW) != 0) {
+					// This transcription note was aligned with nothing in the ground truth.
+					alignments.add(new AlignmentNode(previousAlignments.get(j - previousStart), -1));
+				}
+
+				if ((previousCells & AlignmentMatrix.PREVIOUS_COLUMN) != 0) {
+					// This ground truth note was aligned with nothing in the transcription.
+					for (AlignmentNode prev : rowAlignments.get(j - 1 - start)) {
+						if (prev.value != -1) {
+							alignments.add(prev);
+						}
 					}
 				}
 
-			} else {
-				// The current transcription and ground truth notes were aligned.
-				alignments.add(new AlignmentNode(getPossibleAlignmentsFromMatrix(i - 1, j - 1, previousCells, alignmentCache), j - 1));
+				if ((previousCells & AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN) != 0) {
+					// The current transcription and ground truth notes were aligned.
+					alignments.add(new AlignmentNode(previousAlignments.get(j - 1 - previousStart), j - 1));
+				}
 			}
+
+			previousAlignments = rowAlignments;
+			previousStart = start;
 		}
 
-		return alignments;
+		return previousAlignments.get(matrix.columns - 1 - previousStart);
+	}
+
+	/**
+	 * Mark the cells of the given matrix which lie on some path (of previous cells) to the final cell,
+	 * in reverse row-major order. The marks are stored in the matrix itself (see
+	 * {@link AlignmentMatrix#REACHABLE}), so they take no heap for an off-heap matrix.
+	 *
+	 * @param matrix The alignment matrix.
+	 */
+	private static void markReachableCells(AlignmentMatrix matrix) {
+		int lastRow = matrix.rows - 1;
+		int lastColumn = matrix.columns - 1;
+
+		matrix.setReachable(lastRow, lastColumn);
+
+		for (int i = lastRow; i >= 0; i--) {
+			for (int j = matrix.getRowEnd(i); j >= matrix.getRowStart(i); j--) {
+				byte previousCells = matrix.getPreviousCells(i, j);
+				if ((previousCells & AlignmentMatrix.REACHABLE) == 0) {
+					continue;
+				}
+
+				if ((previousCells & AlignmentMatrix.PREVIOUS_ROW) != 0) {
+					matrix.setReachable(i - 1, j);
+				}
+
+				if ((previousCells & AlignmentMatrix.PREVIOUS_COLUMN) != 0) {
+					matrix.setReachable(i, j - 1);
+				}
+
+				if ((previousCells & AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN) != 0) {
+					matrix.setReachable(i - 1, j - 1);
+				}
+			}
+		}
 	}
 
 	/**
@@ -98,287 +416,1028 @@ public class Aligner {
 	 * During calculation, we add an additional 0.6 penalty to any aligned note whose previous
 	 * notes (in both ground truth and transcription) were not aligned. This is used to prefer
 	 * alignments which align many consecutive notes.
+	 * <br>
+	 * If {@link Main#DTW_BAND_RADIUS} is set, only the cells within a band around the path given
+	 * by the ratio of the pieces' onset times are computed (see {@link #getBand(List, List, int)}).
+	 * If {@link Main#MULTI_RESOLUTION_RADIUS} is set, only the cells within a band around the path
+	 * found by a lower resolution alignment are computed (see
+	 * {@link #getMultiResolutionBand(PitchHistogram[], PitchHistogram[], int, DtwEngine, double)}).
+	 * <br>
+	 * If {@link Main#CACHE_DIRECTORY} is set, the matrix is loaded from the {@link AlignmentMatrixCache}
+	 * there if it has already been computed, and is saved there otherwise. A loaded matrix has no distances.
+	 * <br>
+	 * The insertion and deletion penalty is {@link Main#NON_ALIGNMENT_PENALTY}.
 	 *
 	 * @param gtNotes The ground truth note lists, split by onset time.
 	 * @param mNotes The transcribed note lists, split by onset time.
 	 *
-	 * @return A List of the previous step's aligned cells for each cell in the alignment matrix.
+	 * @return The alignment matrix, containing the previous step's aligned cells for each cell.
 	 */
-	private static List<List<List<Integer>>> getAlignmentMatrix(List<List<Note>> gtNotes, List<List<Note>> mNotes) {
-		List<Map<Integer, Integer>> gtNoteMaps = getNotePitchMaps(gtNotes);
-		List<Map<Integer, Integer>> mNoteMaps = getNotePitchMaps(mNotes);
+	private static AlignmentMatrix getAlignmentMatrix(List<List<Note>> gtNotes, List<List<Note>> mNotes) {
+		double penalty = Main.NON_ALIGNMENT_PENALTY;
 
-		double[][] distances = new double[gtNotes.size() + 1][mNotes.size() + 1];
+		AlignmentMatrixCache cache = null;
+		String key = null;
+		if (Main.CACHE_DIRECTORY != null) {
+			cache = new AlignmentMatrixCache(Main.CACHE_DIRECTORY);
+			key = AlignmentMatrixCache.getKey(gtNotes, mNotes, penalty, Main.DTW_BAND_RADIUS,
+					Main.MULTI_RESOLUTION_RADIUS, Main.ANCHOR_LENGTH);
 
-		List<List<List<Integer>>> previousCells = new ArrayList<List<List<Integer>>>(gtNotes.size() + 1);
-		for (int i = 0; i < gtNotes.size() + 1; i++) {
-			List<List<Integer>> list = new ArrayList<List<Integer>>(mNotes.size() + 1);
-			for (int j = 0; j < mNotes.size() + 1; j++) {
-				list.add(new ArrayList<Integer>(3));
+			AlignmentMatrix matrix = cache.load(key, gtNotes.size() + 1, mNotes.size() + 1);
+			if (matrix != null) {
+				if (Main.VERBOSE) {
+					System.out.println("DTW matrix loaded from cache: " + cache.getFile(key));
+				}
+				return matrix;
 			}
+		}
 
-			previousCells.add(list);
+		AlignmentMatrix matrix = computeAlignmentMatrix(gtNotes, mNotes, penalty);
+
+		if (Main.VERBOSE) {
+			System.out.println("DTW cells evaluated: " + getCellsEvaluated(matrix) + " / " + ((long) gtNotes.size() * mNotes.size()));
 		}
 
-		for (int i = 1; i < distances.length; i++) {
-			distances[i][0] = Double.POSITIVE_INFINITY;
+		if (cache != null) {
+			cache.save(key, matrix);
+			if (Main.VERBOSE) {
+				System.out.println("DTW matrix saved to cache: " + cache.getFile(key));
+			}
 		}
 
-		for (int j = 1; j < distances[0].length; j++) {
-			distances[0][j] = Double.POSITIVE_INFINITY;
+		return matrix;
+	}
+
+	/**
+	 * Perform the Dynamic Time Warping of the given note lists, within the band given by
+	 * {@link Main#DTW_BAND_RADIUS}, {@link Main#MULTI_RESOLUTION_RADIUS}, or {@link Main#ANCHOR_LENGTH}, if any is set.
+	 *
+	 * @param gtNotes The ground truth note lists, split by onset time.
+	 * @param mNotes The transcribed note lists, split by onset time.
+	 * @param penalty The insertion and deletion penalty.
+	 *
+	 * @return The alignment matrix, containing the previous step's aligned cells for each cell.
+	 */
+	private static AlignmentMatrix computeAlignmentMatrix(List<List<Note>> gtNotes, List<List<Note>> mNotes, double penalty) {
+		PitchHistogram[] gtHistograms = getPitchHistograms(gtNotes);
+		PitchHistogram[] mHistograms = getPitchHistograms(mNotes);
+
+		DtwEngine engine = getDtwEngine();
+
+		if (Main.ANCHOR_LENGTH > 0) {
+			int[][] anchors = getAnchors(gtNotes, mNotes);
+			int[][] band = getAnchorBand(anchors, gtNotes.size() + 1, mNotes.size() + 1);
+			if (Main.OFF_HEAP_DIRECTORY != null) {
+				return getOffHeapAlignmentMatrix(gtHistograms, mHistograms, band, anchors[0], engine, penalty);
+			}
+			return getAlignmentMatrix(getLocalDistances(gtHistograms, mHistograms, band), band, anchors[0], mNotes.size() + 1,
+					engine, penalty, true);
 		}
 
-		for (int j = 1; j < distances[0].length; j++) {
-			for (int i = 1; i < distances.length; i++) {
-				double distance = getDistance(gtNoteMaps.get(i - 1), mNoteMaps.get(j - 1));
+		int[][] band;
+		if (Main.MULTI_RESOLUTION_RADIUS >= 0) {
+			band = getMultiResolutionBand(gtHistograms, mHistograms, Main.MULTI_RESOLUTION_RADIUS, engine, penalty);
+		} else {
+			band = getBand(gtNotes, mNotes, Main.DTW_BAND_RADIUS);
+		}
 
-				double distance_i_1 = distances[i - 1][j] + Main.NON_ALIGNMENT_PENALTY;
-				double distance_j_1 = distances[i][j - 1] + Main.NON_ALIGNMENT_PENALTY;
-				double distance_i_j_1 = distances[i - 1][j - 1] + distance;
+		return getAlignmentMatrix(gtHistograms, mHistograms, band, engine, penalty);
+	}
 
-				double min_distance = Math.min(Math.min(distance_i_1, distance_j_1), distance_i_j_1);
+	/**
+	 * Perform the Dynamic Time Warping within the given band of the alignment matrix.
+	 * <br>
+	 * If {@link Main#THREADS} is greater than 1 and the band contains at least {@link Main#PARALLEL_DTW_THRESHOLD}
+	 * cells, the matrix is filled in parallel (see {@link #fillAlignmentMatrixInParallel(AlignmentMatrix,
+	 * PitchHistogram[], PitchHistogram[], DtwEngine, double)}). Otherwise, it is filled serially, a row at a time.
+	 * <br>
+	 * If {@link Main#OFF_HEAP_DIRECTORY} is set, the matrix is stored off-heap instead (see
+	 * {@link #getOffHeapAlignmentMatrix(PitchHistogram[], PitchHistogram[], int[][], int[], DtwEngine, double)}).
+	 *
+	 * @param gtHistograms The pitch histograms of the ground truth note lists.
+	 * @param mHistograms The pitch histograms of the transcription note lists.
+	 * @param band The band within which to compute the matrix, as an array containing the first
+	 * and last (inclusive) column of each row.
+	 * @param engine The engine used to compute each row of the recurrence.
+	 * @param penalty The insertion and deletion penalty.
+	 *
+	 * @return The alignment matrix, containing the previous step's aligned cells for each cell.
+	 */
+	private static AlignmentMatrix getAlignmentMatrix(PitchHistogram[] gtHistograms, PitchHistogram[] mHistograms, int[][] band,
+			DtwEngine engine, double penalty) {
+		if (Main.OFF_HEAP_DIRECTORY != null) {
+			return getOffHeapAlignmentMatrix(gtHistograms, mHistograms, band, new int[0], engine, penalty);
+		}
 
-				List<Integer> previousCell = previousCells.get(i).get(j);
-				if (distance_i_1 == min_distance) {
-					previousCell.add(-1);
-				}
+		AlignmentMatrix matrix = new AlignmentMatrix(band[0], band[1], mHistograms.length + 1);
 
-				if (distance_j_1 == min_distance) {
-					previousCell.add(1);
-				}
+		for (int j = 1; j <= matrix.getRowEnd(0); j++) {
+			matrix.setDistance(0, j, Double.POSITIVE_INFINITY);
+		}
 
-				if (distance_i_j_1 == min_distance) {
-					previousCell.add(0);
-				}
+		if (Main.THREADS > 1 && matrix.getBandSize() >= Main.PARALLEL_DTW_THRESHOLD) {
+			fillAlignmentMatrixInParallel(matrix, gtHistograms, mHistograms, engine, penalty);
 
-				distances[i][j] = min_distance;
+		} else {
+			int maxWidth = 0;
+			for (int i = 1; i < matrix.rows; i++) {
+				maxWidth = Math.max(maxWidth, matrix.getRowEnd(i) - matrix.getRowStart(i) + 1);
 			}
+
+			fillTile(matrix, gtHistograms, mHistograms, 1, matrix.rows - 1, 0, matrix.columns - 1, engine, penalty,
+					new double[maxWidth]);
 		}
 
-		return previousCells;
+		return matrix;
 	}
 
 	/**
-	 * Convert note lists into note pitch maps, which map each pitch of a note to the
-	 * number of notes in that note list at that pitch.
+	 * Fill the given alignment matrix in parallel, using {@link Main#THREADS} threads. The matrix is split
+	 * into square tiles of {@link #DTW_TILE_SIZE} rows and columns. Each tile's cells depend only on those
+	 * of the tiles above it, to its left, and above and to its left, so the tiles are computed in waves,
+	 * one anti-diagonal of tiles at a time, with every (non-empty) tile of a wave computed in parallel.
+	 * Every cell is computed exactly as in the serial fill, so the resulting matrix is identical.
 	 *
-	 * @param noteLists A list of the note lists of a piece of music.
-	 * @return A list of pitch maps for that piece of music.
+	 * @param matrix The alignment matrix, whose first row has already been filled.
+	 * @param gtHistograms The pitch histograms of the ground truth note lists.
+	 * @param mHistograms The pitch histograms of the transcription note lists.
+	 * @param engine The engine used to compute the recurrence. This is shared between threads.
+	 * @param penalty The insertion and deletion penalty.
 	 */
-	private static List<Map<Integer, Integer>> getNotePitchMaps(List<List<Note>> noteLists) {
-		List<Map<Integer, Integer>> notePitchMaps = new ArrayList<Map<Integer, Integer>>(noteLists.size());
+	private static void fillAlignmentMatrixInParallel(AlignmentMatrix matrix, PitchHistogram[] gtHistograms,
+			PitchHistogram[] mHistograms, DtwEngine engine, double penalty) {
+		int rowTiles = (matrix.rows - 1 + DTW_TILE_SIZE - 1) / DTW_TILE_SIZE;
+		int columnTiles = (matrix.columns + DTW_TILE_SIZE - 1) / DTW_TILE_SIZE;
+		int tilesFilled = 0;
 
-		for (List<Note> notesList : noteLists) {
-			Map<Integer, Integer> pitchMap = new HashMap<Integer, Integer>(notesList.size());
-			notePitchMaps.add(pitchMap);
+		ForkJoinPool pool = new ForkJoinPool(Main.THREADS);
+		try {
+			for (int wave = 0; wave < rowTiles + columnTiles - 1; wave++) {
+				List<TileTask> tasks = new ArrayList<TileTask>();
 
-			for (Note note : notesList) {
-				if (pitchMap.containsKey(note.pitch)) {
-					pitchMap.put(note.pitch, pitchMap.get(note.pitch) + 1);
-				} else {
-					pitchMap.put(note.pitch, 1);
+				for (int rowTile = Math.max(0, wave - columnTiles + 1); rowTile <= Math.min(wave, rowTiles - 1); rowTile++) {
+					int firstRow = 1 + rowTile * DTW_TILE_SIZE;
+					int lastRow = Math.min(matrix.rows - 1, firstRow + DTW_TILE_SIZE - 1);
+					int firstColumn = (wave - rowTile) * DTW_TILE_SIZE;
+					int lastColumn = Math.min(matrix.columns - 1, firstColumn + DTW_TILE_SIZE - 1);
+
+					// The band's row ranges never move backwards, so this checks if the tile is empty
+					if (matrix.getRowStart(firstRow) > lastColumn || matrix.getRowEnd(lastRow) < firstColumn) {
+						continue;
+					}
+
+					tasks.add(new TileTask(matrix, gtHistograms, mHistograms, firstRow, lastRow, firstColumn, lastColumn, engine,
+							penalty));
 				}
+
+				pool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(tasks);
+					}
+				});
+				tilesFilled += tasks.size();
 			}
+
+		} finally {
+			pool.shutdown();
 		}
 
-		return notePitchMaps;
+		if (Main.VERBOSE) {
+			System.out.println("Filled DTW matrix in parallel: " + tilesFilled + " tiles in " + (rowTiles + columnTiles - 1) +
+					" waves, using " + Main.THREADS + " threads");
+		}
 	}
 
 	/**
-	 * Get the distance between a given ground truth note set and a possible transcription note set.
+	 * Fill the cells of the given alignment matrix within both the band and the given rectangle.
+	 * The cells above and to the left of the rectangle must already have been filled.
 	 *
-	 * @param gtNoteMap The pitch map of a ground truth note set.
-	 * @param mNoteMap The pitch map of a possible transcription note set.
-	 * @return The alignment score. 1 - its F-measure.
+	 * @param matrix The alignment matrix.
+	 * @param gtHistograms The pitch histograms of the ground truth note lists.
+	 * @param mHistograms The pitch histograms of the transcription note lists.
+	 * @param firstRow The first row of the rectangle (at least 1).
+	 * @param lastRow The last row of the rectangle (inclusive).
+	 * @param firstColumn The first column of the rectangle.
+	 * @param lastColumn The last column of the rectangle (inclusive).
+	 * @param engine The engine used to compute the recurrence.
+	 * @param penalty The insertion and deletion penalty.
+	 * @param localDistances A buffer for the local distances of each row, at least as long as the
+	 * widest row within the rectangle.
 	 */
-	private static double getDistance(Map<Integer, Integer> gtNoteMap, Map<Integer, Integer> mNoteMap) {
-		int truePositives = 0;
-		int falsePositives = 0;
+	private static void fillTile(AlignmentMatrix matrix, PitchHistogram[] gtHistograms, PitchHistogram[] mHistograms,
+			int firstRow, int lastRow, int firstColumn, int lastColumn, DtwEngine engine, double penalty, double[] localDistances) {
+		for (int i = firstRow; i <= lastRow; i++) {
+			int rowStart = matrix.getRowStart(i);
+			int from = Math.max(firstColumn, rowStart);
+			int to = Math.min(lastColumn, matrix.getRowEnd(i));
+			if (from > to) {
+				continue;
+			}
 
-		for (Entry<Integer, Integer> entry : mNoteMap.entrySet()) {
-			Integer pitch = entry.getKey();
-			int count = entry.getValue();
+			for (int j = Math.max(from, 1); j <= to; j++) {
+				localDistances[j - from] = mHistograms[j - 1].getDistance(gtHistograms[i - 1]);
+			}
 
-			if (gtNoteMap.containsKey(pitch)) {
-				int gtCount = gtNoteMap.get(pitch);
+			engine.fillRow(matrix.getRowDistances(i - 1), matrix.getRowStart(i - 1), matrix.getRowDistances(i), rowStart,
+					from - rowStart, to - rowStart + 1, localDistances, matrix.getPreviousCellsStorage(), matrix.getRowOffset(i),
+					penalty);
+		}
+	}
 
-				truePositives += Math.min(count, gtCount);
-				if (count > gtCount) {
-					falsePositives += count - gtCount;
-				}
+	/**
+	 * Perform the Dynamic Time Warping within the given band of an off-heap alignment matrix, stored in
+	 * {@link Main#OFF_HEAP_DIRECTORY} (see {@link AlignmentMatrix#AlignmentMatrix(int[], int[], int, java.io.File)}).
+	 * Only the previous cells are stored. The matrix is filled serially, a row at a time, and only the distances
+	 * of the current and previous rows are kept in the heap, so the heap used does not depend on the number of rows.
+	 * The previous cells are identical to those of the on-heap matrix.
+	 * <br>
+	 * If the off-heap matrix cannot be created, an error is printed, and the matrix is computed in the heap instead.
+	 *
+	 * @param gtHistograms The pitch histograms of the ground truth note lists.
+	 * @param mHistograms The pitch histograms of the transcription note lists.
+	 * @param band The band within which to compute the matrix, as an array containing the first
+	 * and last (inclusive) column of each row.
+	 * @param anchorRows The rows of the anchors, in increasing order (empty for no anchors). See
+	 * {@link #getAlignmentMatrix(double[][], int[][], int[], int, DtwEngine, double, boolean)}.
+	 * @param engine The engine used to compute each row of the recurrence.
+	 * @param penalty The insertion and deletion penalty.
+	 *
+	 * @return The alignment matrix, containing the previous step's aligned cells for each cell.
+	 */
+	private static AlignmentMatrix getOffHeapAlignmentMatrix(PitchHistogram[] gtHistograms, PitchHistogram[] mHistograms,
+			int[][] band, int[] anchorRows, DtwEngine engine, double penalty) {
+		AlignmentMatrix matrix;
+		try {
+			matrix = new AlignmentMatrix(band[0], band[1], mHistograms.length + 1, Main.OFF_HEAP_DIRECTORY);
 
-			} else {
-				falsePositives += count;
+		} catch (IOException e) {
+			System.err.println("Error creating off-heap DTW matrix in " + Main.OFF_HEAP_DIRECTORY + ": " + e +
+					". Using the heap instead.");
+			return getAlignmentMatrix(getLocalDistances(gtHistograms, mHistograms, band), band, anchorRows,
+					mHistograms.length + 1, engine, penalty, false);
+		}
+
+		int maxWidth = 0;
+		for (int i = 0; i < matrix.rows; i++) {
+			maxWidth = Math.max(maxWidth, matrix.getRowEnd(i) - matrix.getRowStart(i) + 1);
+		}
+		double[] localDistances = new double[maxWidth];
+		byte[] previousCells = new byte[maxWidth];
+
+		// The rows are filled in two reused buffers of the widest row's width. Each engine treats the cells
+		// beyond the end of the previous row's array as outside of its band, so they are kept infinite.
+		double[] previousRow = new double[maxWidth];
+		double[] row = new double[maxWidth];
+		Arrays.fill(previousRow, Double.POSITIVE_INFINITY);
+		if (matrix.getRowStart(0) == 0) {
+			previousRow[0] = 0.0;
+		}
+
+		int nextAnchor = 0;
+		for (int i = 1; i < matrix.rows; i++) {
+			int rowStart = matrix.getRowStart(i);
+			int rowEnd = matrix.getRowEnd(i);
+			for (int j = Math.max(rowStart, 1); j <= rowEnd; j++) {
+				localDistances[j - rowStart] = mHistograms[j - 1].getDistance(gtHistograms[i - 1]);
+			}
+
+			boolean anchor = nextAnchor < anchorRows.length && anchorRows[nextAnchor] == i;
+			if (anchor) {
+				nextAnchor++;
 			}
+
+			engine.fillRow(anchor ? ANCHOR_ROW : previousRow, anchor ? matrix.getRowEnd(i - 1) : matrix.getRowStart(i - 1),
+					row, rowStart, 0, rowEnd - rowStart + 1, localDistances, previousCells, 0, penalty);
+			Arrays.fill(row, rowEnd - rowStart + 1, maxWidth, Double.POSITIVE_INFINITY);
+			matrix.setRowPreviousCells(i, previousCells);
+
+			double[] swap = previousRow;
+			previousRow = row;
+			row = swap;
 		}
 
-		if (truePositives == 0) {
-			return 1.0;
+		if (Main.VERBOSE) {
+			System.out.println("DTW matrix stored off-heap: " + matrix.getBandSize() + " cells in " + Main.OFF_HEAP_DIRECTORY);
 		}
 
-		int gtNoteCount = 0;
-		for (int count : gtNoteMap.values()) {
-			gtNoteCount += count;
+		return matrix;
+	}
+
+	/**
+	 * Get the local distance of each cell within the given band.
+	 *
+	 * @param gtHistograms The pitch histograms of the ground truth note lists.
+	 * @param mHistograms The pitch histograms of the transcription note lists.
+	 * @param band The band, as an array containing the first and last (inclusive) column of each row.
+	 *
+	 * @return For each row (after the first), the local distance of each cell within the band, indexed
+	 * by column offset from the row's start. The distance of column 0 is unused, and left as 0.
+	 */
+	private static double[][] getLocalDistances(PitchHistogram[] gtHistograms, PitchHistogram[] mHistograms, int[][] band) {
+		double[][] localDistances = new double[band[0].length][];
+		for (int i = 1; i < localDistances.length; i++) {
+			int rowStart = band[0][i];
+			localDistances[i] = new double[band[1][i] - rowStart + 1];
+
+			for (int j = Math.max(rowStart, 1); j <= band[1][i]; j++) {
+				localDistances[i][j - rowStart] = mHistograms[j - 1].getDistance(gtHistograms[i - 1]);
+			}
+		}
+		return localDistances;
+	}
+
+	/**
+	 * Perform the Dynamic Time Warping within the given band of the alignment matrix, from already
+	 * computed local distances, with the given insertion and deletion penalty. Without anchors, the matrix
+	 * is filled serially, a row at a time, exactly as in {@link #getAlignmentMatrix(PitchHistogram[], PitchHistogram[], int[][], DtwEngine, double)}.
+	 * <br>
+	 * With anchors (see {@link AnchorFinder} and {@link #getAnchorBand(int[][], int, int)}), every alignment path
+	 * reaches every anchor by a diagonal step. The matrix is then split into segments, each starting at an anchor's
+	 * row, and each segment after the first is computed as a separate DTW, starting from a distance of 0 at the cell
+	 * before its anchor. The segments are therefore independent, and are computed in parallel if requested.
+	 * Each cell's distance is then relative to the previous anchor.
+	 *
+	 * @param localDistances The local distances, from {@link #getLocalDistances(PitchHistogram[], PitchHistogram[], int[][])}.
+	 * @param band The band within which to compute the matrix, as an array containing the first
+	 * and last (inclusive) column of each row.
+	 * @param anchorRows The rows of the anchors, in increasing order (empty for no anchors).
+	 * @param columns The number of columns of the matrix.
+	 * @param engine The engine used to compute each row of the recurrence.
+	 * @param penalty The insertion and deletion penalty.
+	 * @param parallel True to compute the segments in parallel, using {@link Main#THREADS} threads, if the band
+	 * contains at least {@link Main#PARALLEL_DTW_THRESHOLD} cells.
+	 *
+	 * @return The alignment matrix, containing the previous step's aligned cells for each cell.
+	 */
+	private static AlignmentMatrix getAlignmentMatrix(double[][] localDistances, int[][] band, int[] anchorRows, int columns,
+			DtwEngine engine, double penalty, boolean parallel) {
+		AlignmentMatrix matrix = new AlignmentMatrix(band[0], band[1], columns);
+
+		for (int j = 1; j <= matrix.getRowEnd(0); j++) {
+			matrix.setDistance(0, j, Double.POSITIVE_INFINITY);
+		}
+
+		List<SegmentTask> tasks = new ArrayList<SegmentTask>(anchorRows.length + 1);
+		for (int segment = 0; segment <= anchorRows.length; segment++) {
+			int firstRow = segment == 0 ? 1 : anchorRows[segment - 1];
+			int lastRow = segment == anchorRows.length ? matrix.rows - 1 : anchorRows[segment] - 1;
+			if (firstRow <= lastRow) {
+				tasks.add(new SegmentTask(matrix, localDistances, firstRow, lastRow, segment != 0, engine, penalty));
+			}
+		}
+
+		if (parallel && Main.THREADS > 1 && tasks.size() > 1 && matrix.getBandSize() >= Main.PARALLEL_DTW_THRESHOLD) {
+			ForkJoinPool pool = new ForkJoinPool(Main.THREADS);
+			try {
+				pool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(tasks);
+					}
+				});
+
+			} finally {
+				pool.shutdown();
+			}
+
+		} else {
+			for (SegmentTask task : tasks) {
+				task.compute();
+			}
 		}
 
-		int falseNegatives = gtNoteCount - truePositives;
+		return matrix;
+	}
 
-		return 1.0 - Main.getF1(truePositives, falsePositives, falseNegatives);
+	/**
+	 * Fill the rows of the given segment of the given alignment matrix from already computed local distances.
+	 *
+	 * @param matrix The alignment matrix.
+	 * @param localDistances The local distances, from {@link #getLocalDistances(PitchHistogram[], PitchHistogram[], int[][])}.
+	 * @param firstRow The first row of the segment (at least 1).
+	 * @param lastRow The last row of the segment (inclusive).
+	 * @param anchored True if the segment's first row is an anchor's row, in which case the segment starts from
+	 * a distance of 0 at the cell before the anchor (the last cell of the previous row), rather than from its distance.
+	 * @param engine The engine used to compute each row of the recurrence.
+	 * @param penalty The insertion and deletion penalty.
+	 */
+	private static void fillSegment(AlignmentMatrix matrix, double[][] localDistances, int firstRow, int lastRow, boolean anchored,
+			DtwEngine engine, double penalty) {
+		for (int i = firstRow; i <= lastRow; i++) {
+			boolean anchor = i == firstRow && anchored;
+			double[] previousRow = anchor ? ANCHOR_ROW : matrix.getRowDistances(i - 1);
+			int previousStart = anchor ? matrix.getRowEnd(i - 1) : matrix.getRowStart(i - 1);
+
+			engine.fillRow(previousRow, previousStart, matrix.getRowDistances(i), matrix.getRowStart(i), 0, localDistances[i].length,
+					localDistances[i], matrix.getPreviousCellsStorage(), matrix.getRowOffset(i), penalty);
+		}
 	}
 
 	/**
-	 * Convert a time to a new time given some alignment.
+	 * Get the anchors of the given note lists, using n-grams of {@link Main#ANCHOR_LENGTH} note lists.
 	 *
-	 * @param time The time we want to convert.
-	 * @param gt The ground truth music, to help with alignment.
-	 * @param transcription The transcribed music, where the time comes from.
-	 * @param alignment The alignment.
-	 * An alignment is a list containing, for each ground truth note list, the index of the transcription
-	 * note list to which it is aligned, or -1 if it was not aligned with any transcription note.
+	 * @param gtNotes The ground truth note lists, split by onset time.
+	 * @param mNotes The transcribed note lists, split by onset time.
 	 *
-	 * @return A time converted from transcription scale to ground truth scale.
+	 * @return The anchors, from {@link AnchorFinder#getAnchors(List, List, int)}.
 	 */
-	public static int convertTime(int time, Music gt, Music transcription, List<Integer> alignment, Map<Integer, Integer> alignedTimes) {
-		Integer alignedTime = alignedTimes.get(time);
-		if (alignedTime != null) {
-			return alignedTime;
+	private static int[][] getAnchors(List<List<Note>> gtNotes, List<List<Note>> mNotes) {
+		int[][] anchors = AnchorFinder.getAnchors(gtNotes, mNotes, Main.ANCHOR_LENGTH);
+
+		if (Main.VERBOSE) {
+			System.out.println("Anchors: " + anchors[0].length + " / " + gtNotes.size() + " ground truth note lists, " +
+					"splitting the DTW into up to " + (anchors[0].length + 1) + " segments");
 		}
 
-		double transcriptionIndex = -1;
-		List<List<Note>> transcriptionNotes = transcription.getNoteLists();
+		return anchors;
+	}
 
-		// Find the correct transcription anchor index to start with using binary search
-		int first = 0;
-		int last = transcriptionNotes.size();
-		int searchedTime = 0;
-		while (first < last) {
-			int mid = (last + first) / 2;
-			searchedTime = transcriptionNotes.get(mid).get(0).valueOnsetTime;
-
-			if (searchedTime > time) {
-				last = mid - 1;
-			} else if (searchedTime == time) {
-				transcriptionIndex = mid;
-				break;
-			} else {
-				first = mid + 1;
+	/**
+	 * Get the band of the alignment matrix within which cells are computed, given anchors. The band is made of
+	 * full rectangles between consecutive anchors: each row contains the columns from the last anchor at or before
+	 * it to just before the first anchor after it (or the edges of the matrix). The only step from one rectangle
+	 * to the next is therefore the diagonal step into the next anchor. This is the same as the full matrix if
+	 * there are no anchors.
+	 *
+	 * @param anchors The anchors, from {@link AnchorFinder#getAnchors(List, List, int)}.
+	 * @param rows The number of rows of the matrix.
+	 * @param columns The number of columns of the matrix.
+	 *
+	 * @return The band, as an array containing the first and last (inclusive) column of each row.
+	 */
+	private static int[][] getAnchorBand(int[][] anchors, int rows, int columns) {
+		int[] rowStarts = new int[rows];
+		int[] rowEnds = new int[rows];
+
+		int nextAnchor = 0;
+		for (int i = 0; i < rows; i++) {
+			if (nextAnchor < anchors[0].length && anchors[0][nextAnchor] == i) {
+				nextAnchor++;
 			}
+
+			rowStarts[i] = nextAnchor == 0 ? 0 : anchors[1][nextAnchor - 1];
+			rowEnds[i] = nextAnchor == anchors[0].length ? columns - 1 : anchors[1][nextAnchor] - 1;
 		}
 
-		if (transcriptionIndex == -1) {
-			// No match found yet
-			if (first >= transcriptionNotes.size()) {
-				transcriptionIndex = transcriptionNotes.size();
+		return new int[][] {rowStarts, rowEnds};
+	}
+
+	/**
+	 * Get the engine used to compute the DTW recurrence. If {@link Main#VECTORIZED_DTW} is set, this is
+	 * the vectorized engine (<code>mv2h.tools.vector.VectorDtwEngine</code>), which is loaded reflectively,
+	 * since it is only built (with <code>make vector</code>) and usable when the <code>jdk.incubator.vector</code>
+	 * module is available. If it cannot be loaded, the scalar engine is used instead.
+	 *
+	 * @return The DTW engine.
+	 */
+	private static DtwEngine getDtwEngine() {
+		if (Main.VECTORIZED_DTW) {
+			try {
+				return (DtwEngine) Class.forName("mv2h.tools.vector.VectorDtwEngine").getDeclaredConstructor().newInstance();
+
+			} catch (ReflectiveOperationException | LinkageError e) {
+				System.err.println("Vectorized DTW engine unavailable (" + e + "). Using the scalar engine. " +
+						"Build it with make vector, and run with --add-modules jdk.incubator.vector.");
+			}
+		}
+
+		return new ScalarDtwEngine();
+	}
+
+	/**
+	 * Get the number of cells of the given matrix for which a distance was calculated (those within
+	 * the band, excluding the first row and column).
+	 *
+	 * @param matrix The alignment matrix.
+	 * @return The number of cells evaluated.
+	 */
+	private static long getCellsEvaluated(AlignmentMatrix matrix) {
+		long cellsEvaluated = 0;
+		for (int i = 1; i < matrix.rows; i++) {
+			cellsEvaluated += matrix.getRowEnd(i) - Math.max(matrix.getRowStart(i), 1) + 1;
+		}
+		return cellsEvaluated;
+	}
+
+	/**
+	 * Get the band of the alignment matrix within which cells are computed. The band is centred on the
+	 * path given by linearly mapping each ground truth onset time onto the transcription's time range,
+	 * and contains every column within the given radius of that path. The band is then widened where
+	 * necessary so that its row ranges never move backwards and each row connects to the next.
+	 *
+	 * @param gtNotes The ground truth note lists, split by onset time.
+	 * @param mNotes The transcribed note lists, split by onset time.
+	 * @param radius The radius of the band, in note lists. If negative, the band covers the whole matrix.
+	 *
+	 * @return The band, as an array containing the first and last (inclusive) column of each row.
+	 */
+	private static int[][] getBand(List<List<Note>> gtNotes, List<List<Note>> mNotes, int radius) {
+		int rows = gtNotes.size() + 1;
+		int lastColumn = mNotes.size();
+
+		int[] rowStarts = new int[rows];
+		int[] rowEnds = new int[rows];
+
+		if (radius < 0 || gtNotes.isEmpty() || mNotes.isEmpty()) {
+			Arrays.fill(rowEnds, lastColumn);
+			return new int[][] { rowStarts, rowEnds };
+		}
+
+		int gtStart = gtNotes.get(0).get(0).valueOnsetTime;
+		int gtEnd = gtNotes.get(gtNotes.size() - 1).get(0).valueOnsetTime;
+		int mStart = mNotes.get(0).get(0).valueOnsetTime;
+		int mEnd = mNotes.get(mNotes.size() - 1).get(0).valueOnsetTime;
+
+		// Find each row's centre column
+		int mIndex = 0;
+		for (int i = 1; i < rows; i++) {
+			int centre;
+
+			if (gtEnd == gtStart) {
+				// Fall back to the diagonal
+				centre = (int) Math.round(((double) i) * lastColumn / (rows - 1));
+
 			} else {
-				searchedTime = transcriptionNotes.get(first).get(0).valueOnsetTime;
-
-				if (searchedTime == time) {
-					// Time matches an anchor exactly
-					transcriptionIndex = first;
-				} else if (searchedTime > time) {
-					// This anchor is past the time
-					transcriptionIndex = first - 0.5;
-				} else {
-					// This anchor is before the time
-					transcriptionIndex = first + 0.5;
+				double time = mStart + ((double) (gtNotes.get(i - 1).get(0).valueOnsetTime - gtStart)) * (mEnd - mStart) / (gtEnd - gtStart);
+
+				// Find the closest transcription note list (times are increasing, so search forwards)
+				while (mIndex < mNotes.size() - 1 &&
+						Math.abs(mNotes.get(mIndex + 1).get(0).valueOnsetTime - time) <= Math.abs(mNotes.get(mIndex).get(0).valueOnsetTime - time)) {
+					mIndex++;
 				}
+				centre = mIndex + 1;
 			}
+
+			rowStarts[i] = Math.max(0, centre - radius);
+			rowEnds[i] = Math.min(lastColumn, centre + radius);
 		}
 
-		List<List<Note>> gtNotes = gt.getNoteLists();
-		int gtPreviousAnchor = -1;
-		int gtPreviousPreviousAnchor = -1;
-		int gtNextAnchor = gtNotes.size();
-		int gtNextNextAnchor = gtNotes.size();
+		connectBand(rowStarts, rowEnds, lastColumn);
+		return new int[][] { rowStarts, rowEnds };
+	}
 
-		// Go through the alignments
-		for (int i = 0; i < alignment.size(); i++) {
-			if (alignment.get(i) != -1) {
-				// There was an alignment here
+	/**
+	 * Widen the given band where necessary so that it contains the start and end cells, its row ranges
+	 * never move backwards, and each row connects to the next. In the first row, only the first cell
+	 * is reachable, so the first row's band contains only that cell.
+	 *
+	 * @param rowStarts The first column of each row. This will be updated.
+	 * @param rowEnds The last column (inclusive) of each row. This will be updated.
+	 * @param lastColumn The last column of the matrix.
+	 */
+	private static void connectBand(int[] rowStarts, int[] rowEnds, int lastColumn) {
+		int rows = rowStarts.length;
 
-				if (alignment.get(i) == transcriptionIndex) {
-					// This is the correct time, exactly on the index
-					return gtNotes.get(i).get(0).valueOnsetTime;
-				}
+		rowStarts[0] = 0;
+		rowEnds[0] = 0;
+		rowEnds[rows - 1] = lastColumn;
+		for (int i = 1; i < rows; i++) {
+			rowEnds[i] = Math.max(rowEnds[i], rowEnds[i - 1]);
+			rowStarts[i] = Math.max(rowStarts[i], rowStarts[i - 1]);
+			rowStarts[i] = Math.min(rowStarts[i], rowEnds[i - 1] + 1);
+		}
+	}
 
-				if (alignment.get(i) < transcriptionIndex) {
-					// The time is past this anchor
-					gtPreviousPreviousAnchor = gtPreviousAnchor;
-					gtPreviousAnchor = i;
+	/**
+	 * Get the band of the alignment matrix within which cells are computed, using a multi-resolution
+	 * (FastDTW-style) alignment. Both sequences of note lists are downsampled by merging adjacent pairs of
+	 * pitch histograms, and the lower resolution sequences are aligned (recursively, within their own
+	 * multi-resolution band). Every cell on an optimal path of the low resolution alignment is projected
+	 * onto the cells it covers at this resolution, and the band contains every cell within the given radius
+	 * of those (and is then connected as in {@link #connectBand(int[], int[], int)}).
+	 * <br>
+	 * Sequences whose length is not greater than the radius + 2 are aligned in full.
+	 *
+	 * @param gtHistograms The pitch histograms of the ground truth note lists.
+	 * @param mHistograms The pitch histograms of the transcription note lists.
+	 * @param radius The radius of the band around the projected path, in note lists.
+	 * @param engine The engine used to compute each row of the low resolution alignments.
+	 * @param penalty The insertion and deletion penalty of the low resolution alignments.
+	 *
+	 * @return The band, as an array containing the first and last (inclusive) column of each row.
+	 */
+	private static int[][] getMultiResolutionBand(PitchHistogram[] gtHistograms, PitchHistogram[] mHistograms, int radius,
+			DtwEngine engine, double penalty) {
+		int rows = gtHistograms.length + 1;
+		int lastColumn = mHistograms.length;
 
-				} else {
-					// We are past the time
-					if (gtNextAnchor == gtNotes.size()) {
-						// This is the first anchor for which we are past the time
-						gtNextAnchor = i;
-
-					} else {
-						// This is the 2nd anchor for which we are past the time
-						gtNextNextAnchor = i;
-						break;
-					}
+		int[] rowStarts = new int[rows];
+		int[] rowEnds = new int[rows];
+
+		if (gtHistograms.length <= radius + 2 || mHistograms.length <= radius + 2) {
+			Arrays.fill(rowEnds, lastColumn);
+			return new int[][] { rowStarts, rowEnds };
+		}
+
+		// Align at a lower resolution
+		PitchHistogram[] coarseGtHistograms = downsample(gtHistograms);
+		PitchHistogram[] coarseMHistograms = downsample(mHistograms);
+		AlignmentMatrix coarseMatrix = getAlignmentMatrix(coarseGtHistograms, coarseMHistograms,
+				getMultiResolutionBand(coarseGtHistograms, coarseMHistograms, radius, engine, penalty), engine, penalty);
+		markReachableCells(coarseMatrix);
+
+		if (Main.VERBOSE) {
+			System.out.println("Multi-resolution DTW: " + coarseGtHistograms.length + " x " + coarseMHistograms.length +
+					" note lists, radius " + radius + ", coarse path: " + getPathString(coarseMatrix));
+		}
+
+		// Project the low resolution path
+		Arrays.fill(rowStarts, Integer.MAX_VALUE);
+		Arrays.fill(rowEnds, -1);
+		for (int coarseI = 0; coarseI < coarseMatrix.rows; coarseI++) {
+			for (int coarseJ = coarseMatrix.getRowStart(coarseI); coarseJ <= coarseMatrix.getRowEnd(coarseI); coarseJ++) {
+				if (!coarseMatrix.isReachable(coarseI, coarseJ)) {
+					continue;
+				}
+
+				// Coarse index k (k >= 1) covers fine indices 2k - 1 and 2k
+				int firstColumn = Math.max(0, 2 * coarseJ - 1);
+				int lastProjectedColumn = Math.min(lastColumn, 2 * coarseJ);
+				for (int i = Math.max(0, 2 * coarseI - 1); i <= Math.min(rows - 1, 2 * coarseI); i++) {
+					rowStarts[i] = Math.min(rowStarts[i], firstColumn);
+					rowEnds[i] = Math.max(rowEnds[i], lastProjectedColumn);
 				}
 			}
 		}
 
-		if (gtPreviousAnchor == -1 && gtNextAnchor == gtNotes.size()) {
-			// Nothing was aligned
-			alignedTimes.put(time, time);
-			return time;
+		// Widen the projected path by the radius
+		int[] widenedRowStarts = new int[rows];
+		int[] widenedRowEnds = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			int start = Integer.MAX_VALUE;
+			int end = -1;
+			for (int k = Math.max(0, i - radius); k <= Math.min(rows - 1, i + radius); k++) {
+				start = Math.min(start, rowStarts[k]);
+				end = Math.max(end, rowEnds[k]);
+			}
+
+			widenedRowStarts[i] = start == Integer.MAX_VALUE ? lastColumn : Math.max(0, start - radius);
+			widenedRowEnds[i] = end == -1 ? 0 : Math.min(lastColumn, end + radius);
 		}
 
-		if (gtPreviousAnchor == -1 ) {
-			// Time is before the first anchor. Use the rate from the first anchor.
-			if (gtNextNextAnchor != gtNotes.size()) {
-				alignedTime = convertTime(time, gtNextAnchor, gtNextNextAnchor, gtNotes, transcriptionNotes, alignment);
+		connectBand(widenedRowStarts, widenedRowEnds, lastColumn);
+		return new int[][] { widenedRowStarts, widenedRowEnds };
+	}
 
-			} else {
-				// Only 1 anchor. Just linear shift.
-				alignedTime = time - transcriptionNotes.get(alignment.get(gtNextAnchor)).get(0).valueOnsetTime + gtNotes.get(gtNextAnchor).get(0).valueOnsetTime;
-			}
+	/**
+	 * Halve the resolution of the given sequence of pitch histograms by merging each adjacent pair.
+	 * If the sequence has an odd length, the last histogram is kept on its own.
+	 *
+	 * @param histograms The pitch histograms.
+	 * @return The downsampled pitch histograms.
+	 */
+	private static PitchHistogram[] downsample(PitchHistogram[] histograms) {
+		PitchHistogram[] downsampled = new PitchHistogram[(histograms.length + 1) / 2];
 
-		} else if (gtNextAnchor == gtNotes.size()) {
-			// Time is after the last anchor. Use the previous rate.
-			if (gtPreviousPreviousAnchor != -1) {
-				alignedTime = convertTime(time, gtPreviousPreviousAnchor, gtPreviousAnchor, gtNotes, transcriptionNotes, alignment);
+		for (int i = 0; i < downsampled.length; i++) {
+			downsampled[i] = 2 * i + 1 < histograms.length ?
+					new PitchHistogram(histograms[2 * i], histograms[2 * i + 1]) : histograms[2 * i];
+		}
+
+		return downsampled;
+	}
 
+	/**
+	 * Get a printable String of one optimal path through the given matrix, following the previous
+	 * cells from the final cell (preferring aligned steps).
+	 *
+	 * @param matrix The alignment matrix.
+	 *
+	 * @return The path, as a String of (row,column) cells in order.
+	 */
+	private static String getPathString(AlignmentMatrix matrix) {
+		List<String> cells = new ArrayList<String>();
+
+		int i = matrix.rows - 1;
+		int j = matrix.columns - 1;
+		while (i > 0 || j > 0) {
+			cells.add("(" + i + "," + j + ")");
+
+			byte previousCells = matrix.getPreviousCells(i, j);
+			if ((previousCells & AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN) != 0) {
+				i--;
+				j--;
+			} else if ((previousCells & AlignmentMatrix.PREVIOUS_ROW) != 0) {
+				i--;
+			} else if ((previousCells & AlignmentMatrix.PREVIOUS_COLUMN) != 0) {
+				j--;
 			} else {
-				// Only 1 anchor. Just linear shift.
-				alignedTime = time - transcriptionNotes.get(alignment.get(gtPreviousAnchor)).get(0).valueOnsetTime + gtNotes.get(gtPreviousAnchor).get(0).valueOnsetTime;
+				// Unreachable final cell
+				break;
 			}
+		}
+		cells.add("(" + i + "," + j + ")");
 
-		} else {
-			// Time is between anchor points.
-			alignedTime = convertTime(time, gtPreviousAnchor, gtNextAnchor, gtNotes, transcriptionNotes, alignment);
+		Collections.reverse(cells);
+		return String.join(" ", cells);
+	}
+
+	/**
+	 * Convert note lists into pitch histograms, which count the number of notes in each note
+	 * list at each pitch.
+	 *
+	 * @param noteLists A list of the note lists of a piece of music.
+	 * @return An array of pitch histograms for that piece of music.
+	 */
+	private static PitchHistogram[] getPitchHistograms(List<List<Note>> noteLists) {
+		PitchHistogram[] histograms = new PitchHistogram[noteLists.size()];
+
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new PitchHistogram(noteLists.get(i));
 		}
 
-		alignedTimes.put(time, alignedTime);
-		return alignedTime;
+		return histograms;
 	}
 
 	/**
-	 * Convert the given time from transcription scale to ground truth scale using the rate between the
-	 * given anchor points.
+	 * Compile the given alignment into a {@link TimeMap}, which can be used to convert times from
+	 * the transcription's time scale to the ground truth's.
 	 *
-	 * @param time The time to convert.
-	 * @param gtPreviousAnchor The first anchor point.
-	 * @param gtNextAnchor The second anchor point.
-	 * @param gtNotes The ground truth note lists.
-	 * @param mNotes The transcription note lists.
+	 * @param gt The ground truth music.
+	 * @param transcription The transcribed music.
 	 * @param alignment The alignment.
 	 * An alignment is a list containing, for each ground truth note list, the index of the transcription
 	 * note list to which it is aligned, or -1 if it was not aligned with any transcription note.
 	 *
-	 * @return The converted time.
+	 * @return A TimeMap whose anchors are the aligned note lists.
+	 */
+	public static TimeMap getTimeMap(Music gt, Music transcription, List<Integer> alignment) {
+		List<List<Note>> gtNotes = gt.getNoteLists();
+		List<List<Note>> transcriptionNotes = transcription.getNoteLists();
+
+		int anchors = 0;
+		for (int value : alignment) {
+			if (value != -1) {
+				anchors++;
+			}
+		}
+
+		int[] transcriptionTimes = new int[anchors];
+		int[] groundTruthTimes = new int[anchors];
+		int anchor = 0;
+		for (int i = 0; i < alignment.size(); i++) {
+			int value = alignment.get(i);
+			if (value != -1) {
+				transcriptionTimes[anchor] = transcriptionNotes.get(value).get(0).valueOnsetTime;
+				groundTruthTimes[anchor] = gtNotes.get(i).get(0).valueOnsetTime;
+				anchor++;
+			}
+		}
+
+		return new TimeMap(transcriptionTimes, groundTruthTimes);
+	}
+
+	/**
+	 * A <code>TileTask</code> fills one tile of an alignment matrix which is being filled in parallel.
 	 */
-	private static int convertTime(int time, int gtPreviousAnchor, int gtNextAnchor, List<List<Note>> gtNotes, List<List<Note>> mNotes, List<Integer> alignment) {
-		int gtPreviousTime = gtNotes.get(gtPreviousAnchor).get(0).valueOnsetTime;
-		int gtNextTime = gtNotes.get(gtNextAnchor).get(0).valueOnsetTime;
-		int mPreviousTime = mNotes.get(alignment.get(gtPreviousAnchor)).get(0).valueOnsetTime;
-		int mNextTime = mNotes.get(alignment.get(gtNextAnchor)).get(0).valueOnsetTime;
+	private static class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The alignment matrix.
+		 */
+		private final AlignmentMatrix matrix;
+
+		/**
+		 * The pitch histograms of the ground truth note lists.
+		 */
+		private final PitchHistogram[] gtHistograms;
+
+		/**
+		 * The pitch histograms of the transcription note lists.
+		 */
+		private final PitchHistogram[] mHistograms;
+
+		/**
+		 * The first row of the tile.
+		 */
+		private final int firstRow;
+
+		/**
+		 * The last row of the tile (inclusive).
+		 */
+		private final int lastRow;
+
+		/**
+		 * The first column of the tile.
+		 */
+		private final int firstColumn;
+
+		/**
+		 * The last column of the tile (inclusive).
+		 */
+		private final int lastColumn;
+
+		/**
+		 * The engine used to compute the recurrence.
+		 */
+		private final DtwEngine engine;
+
+		/**
+		 * The insertion and deletion penalty.
+		 */
+		private final double penalty;
+
+		/**
+		 * Create a new TileTask.
+		 *
+		 * @param matrix {@link #matrix}
+		 * @param gtHistograms {@link #gtHistograms}
+		 * @param mHistograms {@link #mHistograms}
+		 * @param firstRow {@link #firstRow}
+		 * @param lastRow {@link #lastRow}
+		 * @param firstColumn {@link #firstColumn}
+		 * @param lastColumn {@link #lastColumn}
+		 * @param engine {@link #engine}
+		 * @param penalty {@link #penalty}
+		 */
+		public TileTask(AlignmentMatrix matrix, PitchHistogram[] gtHistograms, PitchHistogram[] mHistograms,
+				int firstRow, int lastRow, int firstColumn, int lastColumn, DtwEngine engine, double penalty) {
+			this.matrix = matrix;
+			this.gtHistograms = gtHistograms;
+			this.mHistograms = mHistograms;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+			this.firstColumn = firstColumn;
+			this.lastColumn = lastColumn;
+			this.engine = engine;
+			this.penalty = penalty;
+		}
+
+		@Override
+		protected void compute() {
+			fillTile(matrix, gtHistograms, mHistograms, firstRow, lastRow, firstColumn, lastColumn, engine, penalty,
+					new double[lastColumn - firstColumn + 1]);
+		}
+	}
+
+	/**
+	 * A <code>PenaltyTask</code> performs the Dynamic Time Warping for one penalty of a sweep
+	 * (see {@link Aligner#getPossibleAlignments(Music, Music, double[])}), from shared local distances.
+	 */
+	private static class PenaltyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The alignment matrix of each penalty of the sweep, into which this task's matrix is stored.
+		 */
+		private final AlignmentMatrix[] matrices;
+
+		/**
+		 * The index of this task's penalty in the sweep.
+		 */
+		private final int index;
+
+		/**
+		 * The pitch histograms of the ground truth note lists.
+		 */
+		private final PitchHistogram[] gtHistograms;
+
+		/**
+		 * The pitch histograms of the transcription note lists.
+		 */
+		private final PitchHistogram[] mHistograms;
+
+		/**
+		 * The shared local distances, or null if the matrix is stored off-heap.
+		 */
+		private final double[][] localDistances;
 
-		double rate = ((double) (gtNextTime - gtPreviousTime)) / (mNextTime - mPreviousTime);
+		/**
+		 * The band within which to compute the matrix.
+		 */
+		private final int[][] band;
 
-		return (int) Math.round(rate * (time - mPreviousTime) + gtPreviousTime);
+		/**
+		 * The rows of the anchors (empty for no anchors).
+		 */
+		private final int[] anchorRows;
+
+		/**
+		 * The number of columns of the matrix.
+		 */
+		private final int columns;
+
+		/**
+		 * The engine used to compute the recurrence.
+		 */
+		private final DtwEngine engine;
+
+		/**
+		 * The insertion and deletion penalty.
+		 */
+		private final double penalty;
+
+		/**
+		 * Create a new PenaltyTask.
+		 *
+		 * @param matrices {@link #matrices}
+		 * @param index {@link #index}
+		 * @param gtHistograms {@link #gtHistograms}
+		 * @param mHistograms {@link #mHistograms}
+		 * @param localDistances {@link #localDistances}
+		 * @param band {@link #band}
+		 * @param anchorRows {@link #anchorRows}
+		 * @param columns {@link #columns}
+		 * @param engine {@link #engine}
+		 * @param penalty {@link #penalty}
+		 */
+		public PenaltyTask(AlignmentMatrix[] matrices, int index, PitchHistogram[] gtHistograms, PitchHistogram[] mHistograms,
+				double[][] localDistances, int[][] band, int[] anchorRows, int columns, DtwEngine engine, double penalty) {
+			this.matrices = matrices;
+			this.index = index;
+			this.gtHistograms = gtHistograms;
+			this.mHistograms = mHistograms;
+			this.localDistances = localDistances;
+			this.band = band;
+			this.anchorRows = anchorRows;
+			this.columns = columns;
+			this.engine = engine;
+			this.penalty = penalty;
+		}
+
+		@Override
+		protected void compute() {
+			if (localDistances == null) {
+				matrices[index] = getOffHeapAlignmentMatrix(gtHistograms, mHistograms, band, anchorRows, engine, penalty);
+			} else {
+				matrices[index] = getAlignmentMatrix(localDistances, band, anchorRows, columns, engine, penalty, false);
+			}
+		}
+	}
+
+	/**
+	 * A <code>SegmentTask</code> fills one segment of an alignment matrix between anchors (see
+	 * {@link Aligner#fillSegment(AlignmentMatrix, double[][], int, int, boolean, DtwEngine, double)}).
+	 */
+	private static class SegmentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The alignment matrix.
+		 */
+		private final AlignmentMatrix matrix;
+
+		/**
+		 * The local distances.
+		 */
+		private final double[][] localDistances;
+
+		/**
+		 * The first row of the segment.
+		 */
+		private final int firstRow;
+
+		/**
+		 * The last row of the segment (inclusive).
+		 */
+		private final int lastRow;
+
+		/**
+		 * True if the segment's first row is an anchor's row.
+		 */
+		private final boolean anchored;
+
+		/**
+		 * The engine used to compute the recurrence.
+		 */
+		private final DtwEngine engine;
+
+		/**
+		 * The insertion and deletion penalty.
+		 */
+		private final double penalty;
+
+		/**
+		 * Create a new SegmentTask.
+		 *
+		 * @param matrix {@link #matrix}
+		 * @param localDistances {@link #localDistances}
+		 * @param firstRow {@link #firstRow}
+		 * @param lastRow {@link #lastRow}
+		 * @param anchored {@link #anchored}
+		 * @param engine {@link #engine}
+		 * @param penalty {@link #penalty}
+		 */
+		public SegmentTask(AlignmentMatrix matrix, double[][] localDistances, int firstRow, int lastRow, boolean anchored,
+				DtwEngine engine, double penalty) {
+			this.matrix = matrix;
+			this.localDistances = localDistances;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+			this.anchored = anchored;
+			this.engine = engine;
+			this.penalty = penalty;
+		}
+
+		@Override
+		protected void compute() {
+			fillSegment(matrix, localDistances, firstRow, lastRow, anchored, engine, penalty);
+		}
 	}
 }
@@ -0,0 +1,246 @@
+package mv2h.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import mv2h.Main;
+import mv2h.objects.Music;
+import mv2h.objects.Note;
+
+/**
+ * The <code>AlignmentBound</code> class is used to calculate an upper bound on the {@link mv2h.objects.MV2H}
+ * score that any alignment passing through an {@link AlignmentNode} can achieve, without generating
+ * or evaluating those alignments.
+ * <br>
+ * The bound is based on the multi-pitch score, with every other score assumed to be perfect. When
+ * a transcription note list is aligned to a ground truth note list, the notes of the transcription
+ * list whose onset time is the list's onset time are converted exactly onto the ground truth list's
+ * onset time, and so they can only match ground truth notes of the same pitch with an onset time within
+ * {@link Main#ONSET_DELTA} of it (which is 0 when aligning, so that they must have exactly that onset
+ * time). Any such note which cannot be matched is a guaranteed false positive: its <i>loss</i>. The delta
+ * is read when the bound is created, and must not change while it is used. Every other transcription note
+ * (in non-aligned lists, or with a different onset time) is optimistically assumed to be matched.
+ * Losses are additive along an alignment, so the minimum loss of all alignments through a node can
+ * be found by dynamic programming on the alignment DAG.
+ *
+ * @author Andrew McLeod
+ */
+public class AlignmentBound {
+	/**
+	 * A tolerance added to any upper bound, to account for floating point rounding in the
+	 * calculation of the true scores.
+	 */
+	private static final double TOLERANCE = 1E-9;
+
+	/**
+	 * The number of notes in the transcription.
+	 */
+	private final int transcriptionNoteCount;
+
+	/**
+	 * The number of notes in the ground truth.
+	 */
+	private final int groundTruthNoteCount;
+
+	/**
+	 * For each transcription note list, a map of pitch to the number of notes at that pitch whose
+	 * onset time equals the list's onset time.
+	 */
+	private final List<Map<Integer, Integer>> transcriptionPitchMaps;
+
+	/**
+	 * For each ground truth note list, a map of pitch to the number of ground truth notes (from any list)
+	 * at that pitch whose onset time is within {@link Main#ONSET_DELTA} of the list's onset time.
+	 */
+	private final List<Map<Integer, Integer>> groundTruthPitchMaps;
+
+	/**
+	 * The loss of each node.
+	 */
+	private final Map<AlignmentNode, Integer> losses;
+
+	/**
+	 * The minimum loss of any alignment prefix ending at each node, including the node itself.
+	 */
+	private final Map<AlignmentNode, Integer> minPrefixLosses;
+
+	/**
+	 * Create a new AlignmentBound for the given pieces and the nodes reachable from the given roots.
+	 *
+	 * @param gt The ground truth.
+	 * @param m The transcription.
+	 * @param alignmentNodes The root alignment nodes, from {@link Aligner#getPossibleAlignments(Music, Music)}.
+	 */
+	public AlignmentBound(Music gt, Music m, List<AlignmentNode> alignmentNodes) {
+		transcriptionPitchMaps = new ArrayList<Map<Integer, Integer>>(m.getNoteLists().size());
+		int count = 0;
+		for (List<Note> noteList : m.getNoteLists()) {
+			Map<Integer, Integer> pitchMap = new HashMap<Integer, Integer>();
+			for (Note note : noteList) {
+				if (note.onsetTime == note.valueOnsetTime) {
+					addPitch(pitchMap, note.pitch);
+				}
+			}
+			transcriptionPitchMaps.add(pitchMap);
+			count += noteList.size();
+		}
+		transcriptionNoteCount = count;
+
+		NavigableMap<Integer, Map<Integer, Integer>> onsetPitchMaps = new TreeMap<Integer, Map<Integer, Integer>>();
+		count = 0;
+		for (List<Note> noteList : gt.getNoteLists()) {
+			for (Note note : noteList) {
+				Map<Integer, Integer> pitchMap = onsetPitchMaps.get(note.onsetTime);
+				if (pitchMap == null) {
+					pitchMap = new HashMap<Integer, Integer>();
+					onsetPitchMaps.put(note.onsetTime, pitchMap);
+				}
+				addPitch(pitchMap, note.pitch);
+			}
+			count += noteList.size();
+		}
+		groundTruthNoteCount = count;
+
+		groundTruthPitchMaps = new ArrayList<Map<Integer, Integer>>(gt.getNoteLists().size());
+		int onsetDelta = Main.ONSET_DELTA;
+		for (List<Note> noteList : gt.getNoteLists()) {
+			int onsetTime = noteList.get(0).valueOnsetTime;
+			Map<Integer, Integer> pitchMap;
+
+			if (onsetDelta == 0) {
+				pitchMap = onsetPitchMaps.get(onsetTime);
+
+			} else {
+				// Combine the pitches of every onset time within the delta
+				pitchMap = new HashMap<Integer, Integer>();
+				for (Map<Integer, Integer> onsetPitchMap :
+						onsetPitchMaps.subMap(onsetTime - onsetDelta, true, onsetTime + onsetDelta, true).values()) {
+					for (Map.Entry<Integer, Integer> entry : onsetPitchMap.entrySet()) {
+						Integer pitchCount = pitchMap.get(entry.getKey());
+						pitchMap.put(entry.getKey(), pitchCount == null ? entry.getValue() : pitchCount + entry.getValue());
+					}
+				}
+			}
+
+			groundTruthPitchMaps.add(pitchMap == null ? new HashMap<Integer, Integer>() : pitchMap);
+		}
+
+		losses = new IdentityHashMap<AlignmentNode, Integer>();
+		minPrefixLosses = new IdentityHashMap<AlignmentNode, Integer>();
+		calculateMinPrefixLosses(alignmentNodes);
+	}
+
+	/**
+	 * Add one count of the given pitch to the given pitch map.
+	 *
+	 * @param pitchMap The pitch map.
+	 * @param pitch The pitch to add.
+	 */
+	private static void addPitch(Map<Integer, Integer> pitchMap, int pitch) {
+		Integer pitchCount = pitchMap.get(pitch);
+		pitchMap.put(pitch, pitchCount == null ? 1 : pitchCount + 1);
+	}
+
+	/**
+	 * Calculate {@link #losses} and {@link #minPrefixLosses} for every node reachable from the given roots. Nodes are
+	 * processed in order of increasing ground truth index, so that every node's previous nodes
+	 * are calculated before it.
+	 *
+	 * @param alignmentNodes The root alignment nodes.
+	 */
+	private void calculateMinPrefixLosses(List<AlignmentNode> alignmentNodes) {
+		Map<AlignmentNode, Boolean> seen = new IdentityHashMap<AlignmentNode, Boolean>();
+		List<AlignmentNode> nodes = new ArrayList<AlignmentNode>();
+
+		List<AlignmentNode> stack = new ArrayList<AlignmentNode>(alignmentNodes);
+		while (!stack.isEmpty()) {
+			AlignmentNode node = stack.remove(stack.size() - 1);
+			if (seen.put(node, Boolean.TRUE) == null) {
+				nodes.add(node);
+				stack.addAll(node.prevList);
+			}
+		}
+
+		Collections.sort(nodes, new Comparator<AlignmentNode>() {
+			@Override
+			public int compare(AlignmentNode o1, AlignmentNode o2) {
+				return Integer.compare(o1.groundTruthIndex, o2.groundTruthIndex);
+			}
+		});
+
+		for (AlignmentNode node : nodes) {
+			int minPrevLoss = node.prevList.isEmpty() ? 0 : Integer.MAX_VALUE;
+			for (AlignmentNode prev : node.prevList) {
+				minPrevLoss = Math.min(minPrevLoss, minPrefixLosses.get(prev));
+			}
+
+			int loss = calculateLoss(node);
+			losses.put(node, loss);
+			minPrefixLosses.put(node, minPrevLoss + loss);
+		}
+	}
+
+	/**
+	 * Calculate the loss of the given node: the number of transcription notes that are guaranteed to be
+	 * false positives due to the alignment at this node.
+	 *
+	 * @param node The node.
+	 * @return The loss of the given node.
+	 */
+	private int calculateLoss(AlignmentNode node) {
+		if (node.value == -1) {
+			return 0;
+		}
+
+		Map<Integer, Integer> groundTruthPitchMap = groundTruthPitchMaps.get(node.groundTruthIndex);
+
+		int loss = 0;
+		for (Map.Entry<Integer, Integer> entry : transcriptionPitchMaps.get(node.value).entrySet()) {
+			Integer groundTruthCount = groundTruthPitchMap.get(entry.getKey());
+			loss += Math.max(0, entry.getValue() - (groundTruthCount == null ? 0 : groundTruthCount));
+		}
+
+		return loss;
+	}
+
+	/**
+	 * Get the loss of the given node: the number of transcription notes that are guaranteed to be false
+	 * positives due to the alignment at this node.
+	 *
+	 * @param node The node.
+	 * @return The loss of the given node.
+	 */
+	public int getLoss(AlignmentNode node) {
+		return losses.get(node);
+	}
+
+	/**
+	 * Get the minimum loss of any alignment prefix ending at the given node.
+	 *
+	 * @param node The node.
+	 * @return The minimum loss of any alignment prefix ending at the given node, including its own loss.
+	 */
+	public int getMinPrefixLoss(AlignmentNode node) {
+		return minPrefixLosses.get(node);
+	}
+
+	/**
+	 * Get an upper bound on the MV2H score of any alignment with the given total loss.
+	 *
+	 * @param loss The total loss of the alignment.
+	 * @return An upper bound on the MV2H score of the alignment.
+	 */
+	public double getUpperBound(int loss) {
+		int truePositives = Math.min(transcriptionNoteCount - loss, groundTruthNoteCount);
+		double multiPitchF1 = Main.getF1(truePositives, transcriptionNoteCount - truePositives, groundTruthNoteCount - truePositives);
+
+		return (multiPitchF1 + 4.0) / 5.0 + TOLERANCE;
+	}
+}
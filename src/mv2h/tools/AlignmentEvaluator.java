@@ -0,0 +1,990 @@
+package mv2h.tools;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import mv2h.Main;
+import mv2h.objects.MV2H;
+import mv2h.objects.Music;
+
+/**
+ * The <code>AlignmentEvaluator</code> class is used to search through the candidate alignments
+ * returned by {@link Aligner#getPossibleAlignments(Music, Music)} for the one which gives the best
+ * {@link MV2H} score. Each alignment is identified by its index in the concatenation of the
+ * alignments of each of the given {@link AlignmentNode}s.
+ * <br>
+ * The search can be split across multiple threads, in which case the alignment index space is
+ * divided (by splitting an {@link AlignmentSpliterator}) between the workers of a {@link ForkJoinPool}. In either case, the result is the same:
+ * the best alignment is the lowest-indexed alignment with the greatest score, according to
+ * {@link MV2H#compareTo(MV2H)}.
+ * <br>
+ * Alignments are generated by a depth-first search of the alignment DAG (see {@link AlignmentIterator}),
+ * and any node whose {@link AlignmentBound} is below the best score found so far is pruned, along with
+ * all of the alignments passing through it. Each remaining alignment is also pruned part way through its
+ * evaluation if its multi-pitch, meter, and harmony scores alone guarantee that it is below the best score
+ * (see {@link Music#evaluateTranscription(Music, double)}). Since a pruned alignment can never be the
+ * best one, this does not change the result.
+ * <br>
+ * Alignment indices are tracked with long arithmetic. In the (practically unreachable) case that the
+ * total number of alignments does not fit in a long, the alignments are not indexed, and are instead
+ * searched serially in the same order.
+ * <br>
+ * Alignments which induce the same converted times (see {@link TimeMapCache}) give the same aligned
+ * transcription, and so the same score. Each distinct time map is only scored once, and any later
+ * alignment which induces it reuses its score (and is still considered for the best alignment).
+ * <br>
+ * Once the best score reaches the ceiling that no alignment can exceed (see {@link Music#getScoreCeiling(Music)}),
+ * no later alignment can replace it, so every alignment with a greater index than the best one is skipped.
+ * Alignments with lower indices (in other threads' ranges) are still evaluated, since they could tie with it.
+ * This is only done when the alignments are {@link #indexed}.
+ * <br>
+ * Alternatively, {@link #evaluateBestFirst(long, double)} performs a budgeted search, which evaluates
+ * the alignments in order of decreasing {@link AlignmentBound} until a candidate or time limit is reached,
+ * and {@link #evaluateSegments()} performs an approximate search, which evaluates the alignments of each
+ * segment between choke points of the alignment DAG separately.
+ * <br>
+ * {@link #evaluateSample(int, double)} evaluates the first few alignments in index order (to time them,
+ * see {@link SearchPlanner}). A later {@link #evaluate(int)} or {@link #evaluateBestFirst(long, double)}
+ * resumes after them, keeping their best, rather than evaluating them again.
+ *
+ * @author Andrew McLeod
+ */
+public class AlignmentEvaluator {
+	/**
+	 * The number of index ranges to create per thread when searching in parallel, to balance the
+	 * load between threads.
+	 */
+	private static final int RANGES_PER_THREAD = 16;
+
+	/**
+	 * The ground truth.
+	 */
+	private final Music groundTruth;
+
+	/**
+	 * The transcription, to be aligned to the ground truth.
+	 */
+	private final Music transcription;
+
+	/**
+	 * The alignment nodes from which alignments are generated.
+	 */
+	private final List<AlignmentNode> alignmentNodes;
+
+	/**
+	 * The total number of alignments.
+	 */
+	private final BigInteger total;
+
+	/**
+	 * Whether {@link #total} fits in a long, so that alignments can be indexed with long arithmetic.
+	 */
+	private final boolean indexed;
+
+	/**
+	 * The upper bounds used to prune the search.
+	 */
+	private final AlignmentBound bound;
+
+	/**
+	 * The scores of the time maps which have been scored so far, shared between all evaluators.
+	 */
+	private final TimeMapCache cache;
+
+	/**
+	 * The upper bound of each score that any alignment can achieve.
+	 */
+	private final MV2H ceiling;
+
+	/**
+	 * The best score found so far.
+	 */
+	private volatile MV2H best;
+
+	/**
+	 * Whether {@link #best} has reached the {@link #ceiling}, so that no alignment can beat it.
+	 */
+	private volatile boolean optimal;
+
+	/**
+	 * The index of {@link #best}, or -1 if no alignment has yet been chosen.
+	 */
+	private long bestIndex;
+
+	/**
+	 * The alignment which gave {@link #best}.
+	 */
+	private List<Integer> bestAlignment;
+
+	/**
+	 * The number of alignments which have been evaluated so far.
+	 */
+	private long evaluatedCount;
+
+	/**
+	 * The number of alignments which have been pruned so far.
+	 */
+	private long prunedCount;
+
+	/**
+	 * The number of alignments which have been pruned so far, if the alignments are not {@link #indexed}.
+	 */
+	private BigInteger bigPrunedCount;
+
+	/**
+	 * The number of alignments which have been skipped because {@link #best} reached the {@link #ceiling}.
+	 */
+	private long skippedCount;
+
+	/**
+	 * A description of why the last budgeted search stopped, or null if no budgeted search has been performed.
+	 */
+	private String stopReason;
+
+	/**
+	 * The index of the first alignment not yet searched by {@link #evaluateSample(int, double)}. Every alignment
+	 * with a lower index has already been evaluated or pruned. This is always 0 if the alignments are not {@link #indexed}.
+	 */
+	private long sampledEnd;
+
+	/**
+	 * Create a new AlignmentEvaluator.
+	 *
+	 * @param groundTruth {@link #groundTruth}
+	 * @param transcription {@link #transcription}
+	 * @param alignmentNodes {@link #alignmentNodes}
+	 */
+	public AlignmentEvaluator(Music groundTruth, Music transcription, List<AlignmentNode> alignmentNodes) {
+		this.groundTruth = groundTruth;
+		this.transcription = transcription;
+		this.alignmentNodes = alignmentNodes;
+
+		total = AlignmentIterator.getTotal(alignmentNodes);
+		indexed = total.bitLength() < Long.SIZE;
+
+		bound = new AlignmentBound(groundTruth, transcription, alignmentNodes);
+		cache = new TimeMapCache();
+		ceiling = groundTruth.getScoreCeiling(transcription);
+
+		best = new MV2H(0, 0, 0, 0, 0);
+		optimal = false;
+		bestIndex = -1;
+		bestAlignment = new ArrayList<Integer>();
+		evaluatedCount = 0;
+		prunedCount = 0;
+		bigPrunedCount = BigInteger.ZERO;
+		skippedCount = 0;
+		stopReason = null;
+		sampledEnd = 0;
+	}
+
+	/**
+	 * Evaluate the first alignments, in index order, saving the best one, until either the given number
+	 * of alignments has been evaluated or the given time has passed. At least one alignment is evaluated
+	 * (if there are any). Alignments are pruned as in {@link #evaluate(int)}, so that the time taken per
+	 * alignment is that of a real search.
+	 *
+	 * @param maxSamples The maximum number of alignments to evaluate.
+	 * @param timeLimit The time limit, in seconds.
+	 *
+	 * @return The number of alignments evaluated.
+	 */
+	public int evaluateSample(int maxSamples, double timeLimit) {
+		long deadline = System.nanoTime() + (long) (timeLimit * 1E9);
+
+		BoundFilter filter = new BoundFilter(alignmentNodes.isEmpty() ? 0 : alignmentNodes.get(0).groundTruthIndex + 1);
+		AlignmentIterator iterator = new AlignmentIterator(alignmentNodes, sampledEnd, indexed ? total.longValue() : Long.MAX_VALUE,
+				filter);
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(groundTruth, transcription, cache);
+
+		int samples = 0;
+		boolean complete = false;
+		while (samples < maxSamples && (samples == 0 || System.nanoTime() < deadline)) {
+			if (!iterator.hasNext()) {
+				complete = true;
+				break;
+			}
+
+			List<Integer> alignment = IncrementalEvaluator.toList(iterator.next());
+			evaluateAlignment(alignment, iterator.getIndex(), filter.upperBound, evaluator, iterator.getChangedCount());
+			samples++;
+		}
+
+		if (indexed) {
+			sampledEnd = complete ? total.longValue() : iterator.getIndex() + 1;
+		}
+		return samples;
+	}
+
+	/**
+	 * Check whether every alignment has already been evaluated (or pruned) by {@link #evaluateSample(int, double)}.
+	 *
+	 * @return True if no alignments remain to be searched. False otherwise.
+	 */
+	public boolean isSampleComplete() {
+		return indexed && sampledEnd == total.longValue();
+	}
+
+	/**
+	 * Evaluate every alignment, saving the best one. Any alignments already searched by
+	 * {@link #evaluateSample(int, double)} are not evaluated again.
+	 *
+	 * @param threads The number of threads to use. If this is 1 (or the alignments are not
+	 * {@link #indexed}), the alignments are evaluated serially on the calling thread.
+	 */
+	public void evaluate(int threads) {
+		if (!indexed) {
+			evaluateRange(0, Long.MAX_VALUE);
+			return;
+		}
+
+		long longTotal = total.longValue();
+		if (threads <= 1) {
+			evaluateRange(sampledEnd, longTotal);
+			return;
+		}
+
+		long grainSize = Math.max((longTotal - sampledEnd) / ((long) threads * RANGES_PER_THREAD), 1L);
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new EvaluationTask(new AlignmentSpliterator(alignmentNodes, sampledEnd, longTotal), grainSize));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Perform a budgeted best-first search through the alignments, saving the best one found.
+	 * <br>
+	 * Every path through the alignment DAG has the same DTW cost, so paths are instead ranked by their
+	 * {@link AlignmentBound} loss. Partial paths (from a root back to some node) are expanded in order of
+	 * their total suffix loss plus the node's minimum prefix loss, which is exact, so complete alignments
+	 * are found in order of increasing loss (decreasing upper bound), with ties broken by index. The search
+	 * stops when the given number of candidates has been evaluated, the time limit has passed, or the
+	 * next alignment's upper bound is below the best score (in which case the result is the same as
+	 * that of {@link #evaluate(int)}). Paths are skipped once the best score has reached its ceiling,
+	 * as in {@link #evaluate(int)}. The search is performed serially.
+	 * <br>
+	 * The first alignment found (the most promising) is always evaluated, however small the limits. Alignments
+	 * already searched by {@link #evaluateSample(int, double)} are not evaluated again, nor counted towards the limit.
+	 *
+	 * @param maxCandidates The maximum number of alignments to evaluate, or -1 for no limit.
+	 * @param timeLimit The time limit, in seconds, or -1 for no limit.
+	 *
+	 * @return The best evaluation found (see {@link #getBest()}), or null if no alignment has been evaluated.
+	 */
+	public MV2H evaluateBestFirst(long maxCandidates, double timeLimit) {
+		long deadline = timeLimit < 0 ? Long.MAX_VALUE : System.nanoTime() + (long) (timeLimit * 1E9);
+
+		PriorityQueue<SearchPath> queue = new PriorityQueue<SearchPath>();
+		long sequence = 0;
+		long offset = 0;
+		for (AlignmentNode root : alignmentNodes) {
+			queue.add(new SearchPath(root, null, 0, bound.getMinPrefixLoss(root), offset, sequence++));
+			if (indexed) {
+				offset += root.getLongCount();
+			}
+		}
+
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(groundTruth, transcription, cache);
+		List<Integer> previousAlignment = null;
+		long candidates = 0;
+		stopReason = "search complete";
+
+		while (!queue.isEmpty()) {
+			SearchPath path = queue.peek();
+			AlignmentNode node = path.node;
+
+			if (canSkip(path.offset)) {
+				// No alignment extending this path can replace the best
+				queue.poll();
+				addSkipped(node.getLongCount());
+				stopReason = "best score reached its ceiling";
+				continue;
+			}
+
+			double upperBound = bound.getUpperBound(path.loss);
+			MV2H currentBest = best;
+			if (upperBound < currentBest.mv2h) {
+				// No remaining alignment can beat the best score
+				for (SearchPath remaining : queue) {
+					if (indexed) {
+						addPruned(remaining.node.getLongCount());
+					} else {
+						addPruned(remaining.node.getCount());
+					}
+				}
+
+				if (Main.VERBOSE) {
+					System.out.println("Pruned all remaining alignments with upper bound " + upperBound + " < " + currentBest.mv2h);
+				}
+				break;
+			}
+
+			if (node.prevList.isEmpty()) {
+				// A complete alignment
+				if (indexed && path.offset < sampledEnd) {
+					// Already evaluated (or pruned) by the sample
+					queue.poll();
+					continue;
+				}
+
+				if (candidates > 0 && candidates == maxCandidates) {
+					stopReason = "candidate limit (" + maxCandidates + ") reached";
+					break;
+				}
+
+				if (candidates > 0 && System.nanoTime() >= deadline) {
+					stopReason = "time limit (" + timeLimit + " seconds) reached";
+					break;
+				}
+
+				queue.poll();
+				candidates++;
+
+				List<Integer> alignment = path.getAlignment();
+				evaluateAlignment(alignment, path.offset, upperBound, evaluator, getChangedCount(previousAlignment, alignment));
+				previousAlignment = alignment;
+				continue;
+			}
+
+			// Expand the path to each previous node
+			queue.poll();
+			int suffixLoss = path.suffixLoss + bound.getLoss(node);
+			long prevOffset = path.offset;
+			for (AlignmentNode prev : node.prevList) {
+				queue.add(new SearchPath(prev, path, suffixLoss, suffixLoss + bound.getMinPrefixLoss(prev), prevOffset, sequence++));
+				if (indexed) {
+					prevOffset += prev.getLongCount();
+				}
+			}
+		}
+
+		return getEvaluatedCount() == 0 ? null : getBest();
+	}
+
+	/**
+	 * Perform an approximate search through the alignments by segment decomposition, saving the best one found.
+	 * <br>
+	 * A choke point is a level of the alignment DAG (a ground truth note list) at which every alignment passes
+	 * through the same node. The choke points split the other levels into segments, and every combination of one
+	 * path through each segment is an alignment, so the total number of alignments is the product of the
+	 * segments' path counts. Here, the segments are instead searched one at a time, from the first ground truth
+	 * note list to the last. Each segment's paths are evaluated with every other segment fixed to its best path
+	 * so far (initially, that of the first alignment), and the best is then fixed, so only the sum of the path
+	 * counts is evaluated.
+	 * <br>
+	 * This would find the best alignment if the MV2H score decomposed over the segments. Multi-pitch nearly does
+	 * (each transcription note's converted time depends only on the nearest aligned note lists), but voice, meter,
+	 * value, and harmony do not, so when more than one segment has more than one path, the result is only an
+	 * approximation, and may not be the best alignment. The search is performed serially.
+	 *
+	 * @return The number of segments with more than one path. If this is more than 1, the result is approximate.
+	 */
+	public int evaluateSegments() {
+		if (alignmentNodes.isEmpty()) {
+			return 0;
+		}
+
+		int topLevel = alignmentNodes.get(0).groundTruthIndex;
+
+		// Find the choke points, and the first alignment's path
+		boolean[] chokePoints = new boolean[topLevel + 1];
+		AlignmentNode[] context = new AlignmentNode[topLevel + 1];
+		Set<AlignmentNode> levelNodes = Collections.newSetFromMap(new IdentityHashMap<AlignmentNode, Boolean>());
+		levelNodes.addAll(alignmentNodes);
+		context[topLevel] = alignmentNodes.get(0);
+		for (int level = topLevel; level >= 0; level--) {
+			chokePoints[level] = levelNodes.size() == 1;
+
+			Set<AlignmentNode> prevNodes = Collections.newSetFromMap(new IdentityHashMap<AlignmentNode, Boolean>());
+			for (AlignmentNode node : levelNodes) {
+				prevNodes.addAll(node.prevList);
+			}
+			levelNodes = prevNodes;
+
+			if (level > 0) {
+				context[level - 1] = context[level].prevList.get(0);
+			}
+		}
+
+		// Each segment is a maximal run of levels which are not choke points
+		List<int[]> segments = new ArrayList<int[]>();
+		for (int level = 0; level <= topLevel; level++) {
+			if (!chokePoints[level]) {
+				if (level == 0 || chokePoints[level - 1]) {
+					segments.add(new int[] { level, level });
+				} else {
+					segments.get(segments.size() - 1)[1] = level;
+				}
+			}
+		}
+
+		if (segments.isEmpty()) {
+			// There is only one alignment
+			segments.add(new int[] { 0, topLevel });
+		}
+
+		int searchedSegments = 0;
+		for (int i = 0; i < segments.size() && !optimal; i++) {
+			int[] segment = segments.get(i);
+
+			if (Main.VERBOSE) {
+				System.out.println("Searching segment " + (i + 1) + " / " + segments.size() + " (ground truth note lists " +
+						segment[0] + " to " + segment[1] + ")");
+			}
+
+			SegmentFilter filter = new SegmentFilter(context, segment[0], segment[1]);
+			AlignmentIterator iterator = new AlignmentIterator(alignmentNodes, 0, Long.MAX_VALUE, filter);
+			IncrementalEvaluator evaluator = new IncrementalEvaluator(groundTruth, transcription, cache);
+
+			long paths = 0;
+			while (!optimal && iterator.hasNext()) {
+				List<Integer> alignment = IncrementalEvaluator.toList(iterator.next());
+				paths++;
+
+				if (evaluateAlignment(alignment, iterator.getIndex(), bound.getUpperBound(filter.loss), evaluator,
+						iterator.getChangedCount())) {
+					// Only the segment's levels can differ from the context
+					System.arraycopy(filter.path, segment[0], context, segment[0], segment[1] - segment[0] + 1);
+				}
+			}
+
+			if (paths > 1) {
+				searchedSegments++;
+			}
+		}
+
+		return searchedSegments;
+	}
+
+	/**
+	 * Get the number of leading entries of an alignment which differ from a previous alignment.
+	 *
+	 * @param previousAlignment The previous alignment, or null if there is none.
+	 * @param alignment The alignment.
+	 *
+	 * @return The index after the last entry which differs between the alignments.
+	 */
+	private static int getChangedCount(List<Integer> previousAlignment, List<Integer> alignment) {
+		if (previousAlignment == null) {
+			return alignment.size();
+		}
+
+		for (int i = alignment.size() - 1; i >= 0; i--) {
+			if (!alignment.get(i).equals(previousAlignment.get(i))) {
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Evaluate the alignments with indices in the given range, in order. If the alignments
+	 * are not {@link #indexed}, the range is ignored.
+	 *
+	 * @param start The first alignment index to evaluate, inclusive.
+	 * @param end The last alignment index to evaluate, exclusive.
+	 */
+	private void evaluateRange(long start, long end) {
+		evaluateRange(new AlignmentSpliterator(alignmentNodes, start, end));
+	}
+
+	/**
+	 * Evaluate the alignments of the given spliterator, in order, by traversing it with its
+	 * iterator (see {@link AlignmentSpliterator#iterator(AlignmentIterator.NodeFilter)}).
+	 *
+	 * @param spliterator The spliterator, whose traversal has not yet started.
+	 */
+	private void evaluateRange(AlignmentSpliterator spliterator) {
+		long start = spliterator.getStart();
+		long end = spliterator.getEnd();
+
+		BoundFilter filter = new BoundFilter(alignmentNodes.isEmpty() ? 0 : alignmentNodes.get(0).groundTruthIndex + 1);
+		AlignmentIterator iterator = spliterator.iterator(filter);
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(groundTruth, transcription, cache);
+
+		long nextIndex = start;
+		while (true) {
+			// Checked before the iterator searches (and prunes) any further
+			if (canSkip(nextIndex)) {
+				// No remaining alignment in this range can replace the best
+				addSkipped(end - nextIndex);
+				break;
+			}
+
+			if (!iterator.hasNext()) {
+				break;
+			}
+
+			List<Integer> alignment = IncrementalEvaluator.toList(iterator.next());
+			evaluateAlignment(alignment, iterator.getIndex(), filter.upperBound, evaluator, iterator.getChangedCount());
+			nextIndex = iterator.getIndex() + 1;
+		}
+	}
+
+	/**
+	 * Evaluate a single alignment, and save it if it is the best so far.
+	 *
+	 * @param alignment The alignment.
+	 * @param index The global index of the alignment.
+	 * @param upperBound The upper bound of the alignment's score.
+	 * @param evaluator The evaluator to use, which last evaluated the previous alignment in the same range.
+	 * @param changedCount The number of leading entries of the alignment which may differ from the previous one.
+	 *
+	 * @return True if the alignment was saved as the best. False otherwise.
+	 */
+	private boolean evaluateAlignment(List<Integer> alignment, long index, double upperBound, IncrementalEvaluator evaluator, int changedCount) {
+		String lineEnding = Main.VERBOSE ? "\n" : "\r";
+		System.out.print("Evaluating alignment " + getNextAlignmentNumber() + " / " + total + lineEnding);
+
+		MV2H currentBest = best;
+		MV2H candidate = evaluator.evaluate(alignment, changedCount, currentBest.mv2h);
+
+		if (Main.VERBOSE) {
+			System.out.println("Converted " + evaluator.getConvertedCount() + " / " + evaluator.getTimeCount() + " times");
+		}
+
+		if (candidate == null) {
+			addPruned(1L);
+
+			if (Main.VERBOSE) {
+				System.out.println("Pruned alignment with partial upper bound < " + currentBest.mv2h);
+			}
+			return false;
+		}
+
+		if (evaluator.isDuplicate()) {
+			if (Main.VERBOSE) {
+				System.out.println("Reused score of an already scored time map: " + candidate.mv2h);
+			}
+
+			return updateBest(candidate, index, alignment);
+		}
+
+		if (Main.VERBOSE) {
+			StringBuilder sb = new StringBuilder();
+			if (Main.PRINT_ALIGNMENT) {
+				sb.append(Main.getAlignmentString(groundTruth, transcription, alignment)).append('\n');
+			}
+			sb.append("Upper bound: ").append(upperBound).append('\n');
+			sb.append(candidate);
+			System.out.println(sb);
+		}
+
+		return updateBest(candidate, index, alignment);
+	}
+
+	/**
+	 * Add to {@link #prunedCount}.
+	 *
+	 * @param pruned The number of alignments which have been pruned.
+	 */
+	private synchronized void addPruned(long pruned) {
+		prunedCount += pruned;
+	}
+
+	/**
+	 * Add to {@link #bigPrunedCount}.
+	 *
+	 * @param pruned The number of alignments which have been pruned.
+	 */
+	private synchronized void addPruned(BigInteger pruned) {
+		bigPrunedCount = bigPrunedCount.add(pruned);
+	}
+
+	/**
+	 * Add to {@link #skippedCount}.
+	 *
+	 * @param skipped The number of alignments which have been skipped.
+	 */
+	private synchronized void addSkipped(long skipped) {
+		skippedCount += skipped;
+	}
+
+	/**
+	 * Check whether every alignment with at least the given index can be skipped, because the best
+	 * score has reached its ceiling, and any of those alignments which tied with it would lose the tie.
+	 *
+	 * @param index The global index of the next alignment.
+	 * @return True if the alignments can be skipped. False otherwise.
+	 */
+	private boolean canSkip(long index) {
+		if (!optimal || !indexed) {
+			return false;
+		}
+
+		synchronized (this) {
+			return bestIndex < index;
+		}
+	}
+
+	/**
+	 * Increment {@link #evaluatedCount}.
+	 *
+	 * @return The new value of {@link #evaluatedCount}.
+	 */
+	private synchronized long getNextAlignmentNumber() {
+		return ++evaluatedCount;
+	}
+
+	/**
+	 * Save the given alignment as the best, if it is better than the current best. Ties
+	 * are broken by choosing the alignment with the lower index.
+	 *
+	 * @param candidate The score of the alignment.
+	 * @param index The global index of the alignment.
+	 * @param alignment The alignment.
+	 *
+	 * @return True if the alignment was saved as the best. False otherwise.
+	 */
+	private synchronized boolean updateBest(MV2H candidate, long index, List<Integer> alignment) {
+		int result = candidate.compareTo(best);
+
+		if (result > 0 || (result == 0 && bestIndex != -1 && index < bestIndex)) {
+			best = candidate;
+			bestIndex = index;
+			bestAlignment = alignment;
+
+			optimal = candidate.multiPitch >= ceiling.multiPitch && candidate.voice >= ceiling.voice &&
+					candidate.meter >= ceiling.meter && candidate.value >= ceiling.value && candidate.harmony >= ceiling.harmony;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get the best score found.
+	 *
+	 * @return {@link #best}
+	 */
+	public synchronized MV2H getBest() {
+		return best;
+	}
+
+	/**
+	 * Get the alignment which gave the best score.
+	 *
+	 * @return {@link #bestAlignment}
+	 */
+	public synchronized List<Integer> getBestAlignment() {
+		return bestAlignment;
+	}
+
+	/**
+	 * Get the number of alignments which were pruned without being evaluated.
+	 *
+	 * @return {@link #prunedCount} and {@link #bigPrunedCount}
+	 */
+	public synchronized BigInteger getPrunedCount() {
+		return bigPrunedCount.add(BigInteger.valueOf(prunedCount));
+	}
+
+	/**
+	 * Get the number of alignments which were skipped because the best score reached its ceiling.
+	 *
+	 * @return {@link #skippedCount}
+	 */
+	public synchronized long getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * Get the upper bound of each score that any alignment can achieve.
+	 *
+	 * @return {@link #ceiling}
+	 */
+	public MV2H getCeiling() {
+		return ceiling;
+	}
+
+	/**
+	 * Get the number of distinct time maps which have been scored.
+	 *
+	 * @return The size of {@link #cache}.
+	 */
+	public int getUniqueMapCount() {
+		return cache.size();
+	}
+
+	/**
+	 * Get the total number of alignments.
+	 *
+	 * @return {@link #total}
+	 */
+	public BigInteger getTotal() {
+		return total;
+	}
+
+	/**
+	 * Get the number of alignments which have been evaluated (including those pruned part way
+	 * through their evaluation).
+	 *
+	 * @return {@link #evaluatedCount}
+	 */
+	public synchronized long getEvaluatedCount() {
+		return evaluatedCount;
+	}
+
+	/**
+	 * Get a description of why the last budgeted search stopped.
+	 *
+	 * @return {@link #stopReason}
+	 */
+	public String getStopReason() {
+		return stopReason;
+	}
+
+	/**
+	 * A <code>SearchPath</code> is a partial path through the alignment DAG used by
+	 * {@link AlignmentEvaluator#evaluateBestFirst(long, double)}, from a root back to some node.
+	 */
+	private static class SearchPath implements Comparable<SearchPath> {
+		/**
+		 * The last node of the path (the one with the lowest ground truth index).
+		 */
+		private final AlignmentNode node;
+
+		/**
+		 * The path to the node above {@link #node}, or null if the node is a root.
+		 */
+		private final SearchPath parent;
+
+		/**
+		 * The total loss of the nodes above {@link #node}.
+		 */
+		private final int suffixLoss;
+
+		/**
+		 * The minimum total loss of any complete alignment which extends this path.
+		 */
+		private final int loss;
+
+		/**
+		 * The global index of the first alignment which extends this path.
+		 */
+		private final long offset;
+
+		/**
+		 * The order in which this path was created, to break any remaining ties.
+		 */
+		private final long sequence;
+
+		/**
+		 * Create a new SearchPath.
+		 *
+		 * @param node {@link #node}
+		 * @param parent {@link #parent}
+		 * @param suffixLoss {@link #suffixLoss}
+		 * @param loss {@link #loss}
+		 * @param offset {@link #offset}
+		 * @param sequence {@link #sequence}
+		 */
+		public SearchPath(AlignmentNode node, SearchPath parent, int suffixLoss, int loss, long offset, long sequence) {
+			this.node = node;
+			this.parent = parent;
+			this.suffixLoss = suffixLoss;
+			this.loss = loss;
+			this.offset = offset;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Get the alignment given by this path, which must be complete.
+		 *
+		 * @return The alignment.
+		 */
+		public List<Integer> getAlignment() {
+			List<Integer> alignment = new ArrayList<Integer>();
+			for (SearchPath path = this; path != null; path = path.parent) {
+				alignment.add(path.node.value);
+			}
+			return alignment;
+		}
+
+		@Override
+		public int compareTo(SearchPath o) {
+			int result = Integer.compare(loss, o.loss);
+			if (result != 0) {
+				return result;
+			}
+
+			result = Long.compare(offset, o.offset);
+			if (result != 0) {
+				return result;
+			}
+
+			return Long.compare(sequence, o.sequence);
+		}
+	}
+
+	/**
+	 * A <code>SegmentFilter</code> restricts an {@link AlignmentIterator}'s search to the alignments which
+	 * follow a given context path at every level outside of a segment, for {@link AlignmentEvaluator#evaluateSegments()}.
+	 */
+	private class SegmentFilter implements AlignmentIterator.NodeFilter {
+		/**
+		 * The context path, indexed by level.
+		 */
+		private final AlignmentNode[] context;
+
+		/**
+		 * The first level of the segment.
+		 */
+		private final int first;
+
+		/**
+		 * The last level of the segment (inclusive).
+		 */
+		private final int last;
+
+		/**
+		 * The path of the last accepted complete alignment, indexed by level.
+		 */
+		private final AlignmentNode[] path;
+
+		/**
+		 * The total {@link AlignmentBound} loss of {@link #path}.
+		 */
+		private int loss;
+
+		/**
+		 * Create a new SegmentFilter.
+		 *
+		 * @param context {@link #context}
+		 * @param first {@link #first}
+		 * @param last {@link #last}
+		 */
+		public SegmentFilter(AlignmentNode[] context, int first, int last) {
+			this.context = context;
+			this.first = first;
+			this.last = last;
+			path = new AlignmentNode[context.length];
+			loss = 0;
+		}
+
+		@Override
+		public boolean accept(AlignmentNode[] nodes, int level, long count) {
+			if ((level < first || level > last) && nodes[level] != context[level]) {
+				return false;
+			}
+
+			if (level == 0) {
+				// A complete alignment
+				System.arraycopy(nodes, 0, path, 0, path.length);
+				loss = 0;
+				for (AlignmentNode node : path) {
+					loss += bound.getLoss(node);
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A <code>BoundFilter</code> prunes any node of an {@link AlignmentIterator}'s search whose
+	 * {@link AlignmentBound} is below the current best score.
+	 */
+	private class BoundFilter implements AlignmentIterator.NodeFilter {
+		/**
+		 * The total loss of the nodes above each level of the current search path.
+		 */
+		private final int[] suffixLosses;
+
+		/**
+		 * The upper bound of the last accepted node.
+		 */
+		private double upperBound;
+
+		/**
+		 * Create a new BoundFilter.
+		 *
+		 * @param levels The number of levels in the search (the length of each alignment).
+		 */
+		public BoundFilter(int levels) {
+			suffixLosses = new int[levels];
+			upperBound = Double.POSITIVE_INFINITY;
+		}
+
+		@Override
+		public boolean accept(AlignmentNode[] nodes, int level, long count) {
+			AlignmentNode node = nodes[level];
+
+			// The node above this one has already been accepted, so its suffix loss is set
+			suffixLosses[level] = level == nodes.length - 1 ? 0 : suffixLosses[level + 1] + bound.getLoss(nodes[level + 1]);
+
+			double nodeUpperBound = bound.getUpperBound(suffixLosses[level] + bound.getMinPrefixLoss(node));
+			MV2H currentBest = best;
+			if (nodeUpperBound < currentBest.mv2h) {
+				Number pruned;
+				if (count != AlignmentNode.COUNT_OVERFLOW) {
+					addPruned(count);
+					pruned = count;
+
+				} else {
+					BigInteger bigCount = node.getCount();
+					addPruned(bigCount);
+					pruned = bigCount;
+				}
+
+				if (Main.VERBOSE) {
+					System.out.println("Pruned " + pruned + " alignment(s) with upper bound " + nodeUpperBound +
+							" < " + currentBest.mv2h);
+				}
+				return false;
+			}
+
+			upperBound = nodeUpperBound;
+			return true;
+		}
+	}
+
+	/**
+	 * An <code>EvaluationTask</code> evaluates the alignments of an {@link AlignmentSpliterator},
+	 * splitting it into halves until it is no larger than a given grain size.
+	 */
+	private class EvaluationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The alignments of this task.
+		 */
+		private final AlignmentSpliterator spliterator;
+
+		/**
+		 * The largest range which will be evaluated without being split.
+		 */
+		private final long grainSize;
+
+		/**
+		 * Create a new EvaluationTask.
+		 *
+		 * @param spliterator {@link #spliterator}
+		 * @param grainSize {@link #grainSize}
+		 */
+		public EvaluationTask(AlignmentSpliterator spliterator, long grainSize) {
+			this.spliterator = spliterator;
+			this.grainSize = grainSize;
+		}
+
+		@Override
+		protected void compute() {
+			AlignmentSpliterator prefix = spliterator.estimateSize() > grainSize ? spliterator.trySplit() : null;
+			if (prefix == null) {
+				evaluateRange(spliterator);
+				return;
+			}
+
+			invokeAll(new EvaluationTask(prefix, grainSize), new EvaluationTask(spliterator, grainSize));
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package mv2h.tools;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An <code>AlignmentIterator</code> enumerates the alignments of a list of root {@link AlignmentNode}s
+ * by a depth-first search of the alignment DAG, in index order (the order used by
+ * {@link AlignmentNode#getAlignment(long)}, with the alignments of each root following those of the
+ * previous root).
+ * <br>
+ * Each alignment is returned in the same reusable <code>int[]</code> buffer, containing, for each ground
+ * truth note list, the index of the transcription note list to which it is aligned, or -1. Between
+ * consecutive alignments, only the entries below {@link #getChangedCount()} are rewritten. Callers which
+ * need to keep an alignment must copy it.
+ * <br>
+ * The search can be restricted to a range of alignment indices, and a {@link NodeFilter} can be given
+ * to prune the search at any node. Alignment indices are tracked with long arithmetic. If the total
+ * number of alignments does not fit in a long, the alignments are not indexed: any range is ignored,
+ * and {@link #getIndex()} is always 0.
+ *
+ * @author Andrew McLeod
+ */
+public class AlignmentIterator implements Iterator<int[]> {
+	/**
+	 * A <code>NodeFilter</code> is used to prune the search of an {@link AlignmentIterator}.
+	 */
+	public interface NodeFilter {
+		/**
+		 * Decide whether the search should continue through the node at the given level. This is
+		 * called in depth-first order, so the nodes at all higher levels have already been accepted.
+		 *
+		 * @param nodes The nodes along the current search path, indexed by level (ground truth index).
+		 * Only the entries from the given level upwards are valid.
+		 * @param level The level of the node.
+		 * @param count The number of alignments within the iterator's range which pass through the node
+		 * and its path, or {@link AlignmentNode#COUNT_OVERFLOW} if this does not fit in a long.
+		 *
+		 * @return True to search through the node. False to prune it.
+		 */
+		public boolean accept(AlignmentNode[] nodes, int level, long count);
+	}
+
+	/**
+	 * The root nodes.
+	 */
+	private final List<AlignmentNode> roots;
+
+	/**
+	 * Whether the total number of alignments fits in a long, so that alignments can be indexed.
+	 */
+	private final boolean indexed;
+
+	/**
+	 * The first alignment index to return, inclusive.
+	 */
+	private final long start;
+
+	/**
+	 * The last alignment index to return, exclusive.
+	 */
+	private final long end;
+
+	/**
+	 * The filter used to prune the search, or null to search every node.
+	 */
+	private final NodeFilter filter;
+
+	/**
+	 * The level of the roots. This is one less than the length of each alignment.
+	 */
+	private final int topLevel;
+
+	/**
+	 * The node at each level of the current search path.
+	 */
+	private final AlignmentNode[] nodes;
+
+	/**
+	 * The global index of the first alignment through the node at each level.
+	 */
+	private final long[] offsets;
+
+	/**
+	 * The index of the next previous node to visit at each level, or -1 if the node has just been reached.
+	 */
+	private final int[] nextPrevIndices;
+
+	/**
+	 * The global index of the first alignment through the next previous node to visit at each level.
+	 */
+	private final long[] nextPrevOffsets;
+
+	/**
+	 * The alignment buffer.
+	 */
+	private final int[] alignment;
+
+	/**
+	 * The index of the next root to search.
+	 */
+	private int nextRootIndex;
+
+	/**
+	 * The global index of the first alignment of the next root to search.
+	 */
+	private long nextRootOffset;
+
+	/**
+	 * The current level of the search.
+	 */
+	private int level;
+
+	/**
+	 * Whether the next alignment has been found, but not yet returned.
+	 */
+	private boolean ready;
+
+	/**
+	 * Whether the search is finished.
+	 */
+	private boolean finished;
+
+	/**
+	 * The global index of the last returned alignment.
+	 */
+	private long index;
+
+	/**
+	 * The number of leading entries of {@link #alignment} which have been rewritten since the
+	 * last returned alignment was found.
+	 */
+	private int changedCount;
+
+	/**
+	 * The value of {@link #changedCount} for the last returned alignment.
+	 */
+	private int returnedChangedCount;
+
+	/**
+	 * Create a new AlignmentIterator over all of the alignments of the given roots.
+	 *
+	 * @param roots {@link #roots}
+	 */
+	public AlignmentIterator(List<AlignmentNode> roots) {
+		this(roots, 0, Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * Create a new AlignmentIterator over the alignments of the given roots with indices in the given range.
+	 *
+	 * @param roots {@link #roots}
+	 * @param start {@link #start}
+	 * @param end {@link #end}
+	 * @param filter {@link #filter}
+	 */
+	public AlignmentIterator(List<AlignmentNode> roots, long start, long end, NodeFilter filter) {
+		this.roots = roots;
+		this.indexed = getTotal(roots).bitLength() < Long.SIZE;
+		this.start = start;
+		this.end = end;
+		this.filter = filter;
+
+		topLevel = roots.isEmpty() ? -1 : roots.get(0).groundTruthIndex;
+		nodes = new AlignmentNode[topLevel + 1];
+		offsets = new long[topLevel + 1];
+		nextPrevIndices = new int[topLevel + 1];
+		nextPrevOffsets = new long[topLevel + 1];
+		alignment = new int[topLevel + 1];
+
+		nextRootIndex = 0;
+		nextRootOffset = 0;
+		level = topLevel + 1;
+		ready = false;
+		finished = false;
+		index = -1;
+		changedCount = 0;
+		returnedChangedCount = 0;
+	}
+
+	/**
+	 * Get the total number of alignments of the given roots.
+	 *
+	 * @param roots The root nodes.
+	 * @return The total number of alignments.
+	 */
+	public static BigInteger getTotal(List<AlignmentNode> roots) {
+		BigInteger total = BigInteger.ZERO;
+		for (AlignmentNode root : roots) {
+			total = total.add(root.getCount());
+		}
+		return total;
+	}
+
+	/**
+	 * Check whether the alignments are indexed (their total number fits in a long).
+	 *
+	 * @return {@link #indexed}
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!ready && !finished) {
+			ready = advance();
+			finished = !ready;
+		}
+		return ready;
+	}
+
+	/**
+	 * Get the next alignment. The returned array is reused by subsequent calls.
+	 *
+	 * @return The next alignment.
+	 */
+	@Override
+	public int[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		ready = false;
+		returnedChangedCount = changedCount;
+		changedCount = 0;
+		return alignment;
+	}
+
+	/**
+	 * Get the global index of the last returned alignment.
+	 *
+	 * @return The global index of the last returned alignment, or 0 if the alignments are not indexed.
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get the number of leading entries of the last returned alignment which may differ from the
+	 * alignment returned before it. All later entries are unchanged.
+	 *
+	 * @return The number of leading entries which may have changed.
+	 */
+	public int getChangedCount() {
+		return returnedChangedCount;
+	}
+
+	/**
+	 * Continue the depth-first search until the next alignment is found.
+	 *
+	 * @return True if an alignment was found. False if the search is finished.
+	 */
+	private boolean advance() {
+		while (true) {
+			if (level > topLevel) {
+				// Move on to the next root
+				if (nextRootIndex == roots.size() || (indexed && nextRootOffset >= end)) {
+					return false;
+				}
+
+				AlignmentNode root = roots.get(nextRootIndex++);
+				nodes[topLevel] = root;
+				offsets[topLevel] = nextRootOffset;
+				nextPrevIndices[topLevel] = -1;
+				if (indexed) {
+					nextRootOffset += root.getLongCount();
+				}
+				level = topLevel;
+			}
+
+			AlignmentNode node = nodes[level];
+
+			if (nextPrevIndices[level] == -1) {
+				// Just reached this node
+				if (!accept(level)) {
+					level++;
+					continue;
+				}
+
+				alignment[level] = node.value;
+				changedCount = Math.max(changedCount, level + 1);
+
+				if (level == 0) {
+					// Alignment found
+					index = offsets[0];
+					level++;
+					return true;
+				}
+
+				nextPrevIndices[level] = 0;
+				nextPrevOffsets[level] = offsets[level];
+			}
+
+			if (nextPrevIndices[level] == node.prevList.size()) {
+				// All previous nodes searched
+				level++;
+				continue;
+			}
+
+			AlignmentNode prev = node.prevList.get(nextPrevIndices[level]++);
+			nodes[level - 1] = prev;
+			offsets[level - 1] = nextPrevOffsets[level];
+			nextPrevIndices[level - 1] = -1;
+			if (indexed) {
+				nextPrevOffsets[level] += prev.getLongCount();
+			}
+
+			level--;
+		}
+	}
+
+	/**
+	 * Check whether the search should continue through the node at the given level.
+	 *
+	 * @param level The level of the node.
+	 * @return True if the node is within the range, and is accepted by the {@link #filter}.
+	 */
+	private boolean accept(int level) {
+		AlignmentNode node = nodes[level];
+		long count = node.hasLongCount() ? node.getLongCount() : AlignmentNode.COUNT_OVERFLOW;
+
+		if (indexed) {
+			long offset = offsets[level];
+			long nodeEnd = offset + count;
+
+			if (nodeEnd <= start || offset >= end) {
+				// Outside of the range
+				return false;
+			}
+
+			count = Math.min(nodeEnd, end) - Math.max(offset, start);
+		}
+
+		return filter == null || filter.accept(nodes, level, count);
+	}
+}
@@ -0,0 +1,472 @@
+package mv2h.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An <code>AlignmentMatrix</code> stores the result of the Dynamic Time Warping performed by
+ * {@link Aligner}. Row <code>i</code> represents the first <code>i</code> ground truth note lists
+ * and column <code>j</code> the first <code>j</code> transcription note lists.
+ * <br>
+ * Only the cells within a band (a contiguous range of columns for each row) are computed and stored.
+ * Cells outside of the band are treated as having infinite distance.
+ * <br>
+ * The previous cells of each cell are stored as a bit mask of {@link #PREVIOUS_ROW},
+ * {@link #PREVIOUS_COLUMN}, and {@link #PREVIOUS_ROW_AND_COLUMN}, packed into a single flat
+ * byte array in row-major order. Once the cells on some path to the final cell are found, they are
+ * also marked with {@link #REACHABLE}.
+ * <br>
+ * A matrix read from an {@link AlignmentMatrixCache} stores only its previous cells, and has no distances.
+ * <br>
+ * An off-heap matrix also has no distances, and stores its previous cells in a memory-mapped temporary
+ * file rather than in the Java heap, so that its size is bounded by disk space rather than by the heap.
+ * Its band may then contain more than {@link Integer#MAX_VALUE} cells.
+ *
+ * @author Andrew McLeod
+ */
+public class AlignmentMatrix {
+	/**
+	 * The bit representing a step from the previous row (a non-aligned ground truth note list).
+	 */
+	public static final byte PREVIOUS_ROW = 1;
+
+	/**
+	 * The bit representing a step from the previous column (a non-aligned transcription note list).
+	 */
+	public static final byte PREVIOUS_COLUMN = 2;
+
+	/**
+	 * The bit representing a step from the previous row and column (aligned note lists).
+	 */
+	public static final byte PREVIOUS_ROW_AND_COLUMN = 4;
+
+	/**
+	 * The bit marking a cell which lies on some path (of previous cells) to the final cell. This is not
+	 * set by the DTW, but by {@link Aligner} before building the alignments, so that the marks are stored
+	 * with the previous cells (off-heap, for an off-heap matrix).
+	 */
+	public static final byte REACHABLE = 8;
+
+	/**
+	 * The number of bytes of each memory-mapped chunk of an off-heap matrix's previous cells, since a
+	 * single mapping cannot be larger than {@link Integer#MAX_VALUE} bytes.
+	 */
+	private static final int MAPPED_CHUNK_SIZE = 1 << 30;
+
+	/**
+	 * The number of rows in the matrix (the number of ground truth note lists + 1).
+	 */
+	public final int rows;
+
+	/**
+	 * The number of columns in the matrix (the number of transcription note lists + 1).
+	 */
+	public final int columns;
+
+	/**
+	 * The first column within the band, for each row.
+	 */
+	private final int[] rowStarts;
+
+	/**
+	 * The last column within the band (inclusive), for each row.
+	 */
+	private final int[] rowEnds;
+
+	/**
+	 * The DTW distance of each cell within the band, indexed by row and then by column offset
+	 * from the row's start. This is null if the matrix has no distances.
+	 */
+	private final double[][] distances;
+
+	/**
+	 * The index of the first cell of each row in the previous cells, in row-major order.
+	 */
+	private final long[] rowOffsets;
+
+	/**
+	 * The number of cells within the band.
+	 */
+	private final long bandSize;
+
+	/**
+	 * The previous cells bit mask of each cell within the band, in row-major order.
+	 * This is null if the matrix is off-heap.
+	 */
+	private final byte[] previousCells;
+
+	/**
+	 * The previous cells bit mask of each cell within the band, in row-major order, in chunks of
+	 * {@link #MAPPED_CHUNK_SIZE} bytes of a memory-mapped file. This is null unless the matrix is off-heap.
+	 */
+	private final MappedByteBuffer[] mappedPreviousCells;
+
+	/**
+	 * Create a new AlignmentMatrix with the given band. All distances are initially 0, and
+	 * there are no previous cells.
+	 *
+	 * @param rowStarts {@link #rowStarts}
+	 * @param rowEnds {@link #rowEnds}
+	 * @param columns {@link #columns}
+	 */
+	public AlignmentMatrix(int[] rowStarts, int[] rowEnds, int columns) {
+		this(rowStarts, rowEnds, columns, true);
+	}
+
+	/**
+	 * Create a new AlignmentMatrix with the given band, with or without distances. All distances
+	 * are initially 0, and there are no previous cells.
+	 *
+	 * @param rowStarts {@link #rowStarts}
+	 * @param rowEnds {@link #rowEnds}
+	 * @param columns {@link #columns}
+	 * @param storeDistances True to store the distance of each cell. False to store only the previous cells.
+	 */
+	AlignmentMatrix(int[] rowStarts, int[] rowEnds, int columns, boolean storeDistances) {
+		this.rows = rowStarts.length;
+		this.columns = columns;
+		this.rowStarts = rowStarts;
+		this.rowEnds = rowEnds;
+
+		distances = storeDistances ? new double[rows][] : null;
+		if (storeDistances) {
+			for (int i = 0; i < rows; i++) {
+				distances[i] = new double[rowEnds[i] - rowStarts[i] + 1];
+			}
+		}
+
+		rowOffsets = new long[rows];
+		bandSize = getRowOffsets(rowStarts, rowEnds, rowOffsets);
+		if (bandSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Alignment matrix band too large: use a smaller band radius, or -m DIR.");
+		}
+
+		previousCells = new byte[(int) bandSize];
+		mappedPreviousCells = null;
+	}
+
+	/**
+	 * Create a new off-heap AlignmentMatrix with the given band, without distances, whose previous cells
+	 * are stored in a memory-mapped temporary file in the given directory. There are initially no previous cells.
+	 * The file is deleted once it has been mapped, so its disk space is freed once the matrix is garbage collected.
+	 *
+	 * @param rowStarts {@link #rowStarts}
+	 * @param rowEnds {@link #rowEnds}
+	 * @param columns {@link #columns}
+	 * @param directory The directory in which to create the temporary file.
+	 *
+	 * @throws IOException If the temporary file cannot be created or mapped.
+	 */
+	AlignmentMatrix(int[] rowStarts, int[] rowEnds, int columns, File directory) throws IOException {
+		this.rows = rowStarts.length;
+		this.columns = columns;
+		this.rowStarts = rowStarts;
+		this.rowEnds = rowEnds;
+
+		distances = null;
+		rowOffsets = new long[rows];
+		bandSize = getRowOffsets(rowStarts, rowEnds, rowOffsets);
+		previousCells = null;
+
+		File file = File.createTempFile("mv2h-dtw", ".tmp", directory);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.DELETE_ON_CLOSE)) {
+			mappedPreviousCells = map(channel, FileChannel.MapMode.READ_WRITE, 0, bandSize);
+
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Create a new off-heap AlignmentMatrix with the given band, without distances, whose previous cells
+	 * are the bytes of the given file channel from the given position, in row-major order. The file is mapped
+	 * privately (copy-on-write), so changes to the previous cells (such as {@link #REACHABLE} marks) are
+	 * never written back to it. The mapping remains valid after the channel is closed.
+	 *
+	 * @param rowStarts {@link #rowStarts}
+	 * @param rowEnds {@link #rowEnds}
+	 * @param columns {@link #columns}
+	 * @param channel The file channel, opened for reading and writing (as a private mapping requires).
+	 * @param position The position in the file of the previous cells of the first cell of the band.
+	 *
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	AlignmentMatrix(int[] rowStarts, int[] rowEnds, int columns, FileChannel channel, long position) throws IOException {
+		this.rows = rowStarts.length;
+		this.columns = columns;
+		this.rowStarts = rowStarts;
+		this.rowEnds = rowEnds;
+
+		distances = null;
+		rowOffsets = new long[rows];
+		bandSize = getRowOffsets(rowStarts, rowEnds, rowOffsets);
+		previousCells = null;
+
+		if (channel.size() - position != bandSize) {
+			throw new IllegalArgumentException("File size does not match the band: " + channel.size() + " bytes");
+		}
+		mappedPreviousCells = map(channel, FileChannel.MapMode.PRIVATE, position, bandSize);
+	}
+
+	/**
+	 * Memory-map the given number of bytes of the given file channel in chunks of {@link #MAPPED_CHUNK_SIZE} bytes.
+	 *
+	 * @param channel The file channel.
+	 * @param mode The mapping mode.
+	 * @param position The position in the file of the first byte to map.
+	 * @param size The number of bytes to map.
+	 *
+	 * @return The mapped chunks.
+	 *
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+			throws IOException {
+		MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + MAPPED_CHUNK_SIZE - 1) / MAPPED_CHUNK_SIZE)];
+		for (int chunk = 0; chunk < chunks.length; chunk++) {
+			long offset = (long) chunk * MAPPED_CHUNK_SIZE;
+			chunks[chunk] = channel.map(mode, position + offset, Math.min(MAPPED_CHUNK_SIZE, size - offset));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Get the index of the first cell of each row in the previous cells, in row-major order.
+	 *
+	 * @param rowStarts {@link #rowStarts}
+	 * @param rowEnds {@link #rowEnds}
+	 * @param rowOffsets The array in which to store the index of each row.
+	 *
+	 * @return The number of cells within the band.
+	 */
+	private static long getRowOffsets(int[] rowStarts, int[] rowEnds, long[] rowOffsets) {
+		long size = 0;
+		for (int i = 0; i < rowStarts.length; i++) {
+			rowOffsets[i] = size;
+			size += rowEnds[i] - rowStarts[i] + 1;
+		}
+		return size;
+	}
+
+	/**
+	 * Get the first column within the band for the given row.
+	 *
+	 * @param i The row.
+	 * @return The first column within the band for the given row.
+	 */
+	public int getRowStart(int i) {
+		return rowStarts[i];
+	}
+
+	/**
+	 * Get the last column within the band for the given row.
+	 *
+	 * @param i The row.
+	 * @return The last column (inclusive) within the band for the given row.
+	 */
+	public int getRowEnd(int i) {
+		return rowEnds[i];
+	}
+
+	/**
+	 * Check whether the given cell is within the band.
+	 *
+	 * @param i The row.
+	 * @param j The column.
+	 * @return True if the cell is within the band. False otherwise.
+	 */
+	public boolean isInBand(int i, int j) {
+		return i >= 0 && i < rows && j >= rowStarts[i] && j <= rowEnds[i];
+	}
+
+	/**
+	 * Get the distance of the given cell.
+	 *
+	 * @param i The row.
+	 * @param j The column.
+	 * @return The distance of the given cell, or infinity if it is outside of the band.
+	 */
+	public double getDistance(int i, int j) {
+		return isInBand(i, j) ? distances[i][j - rowStarts[i]] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Set the distance of the given cell, which must be within the band.
+	 *
+	 * @param i The row.
+	 * @param j The column.
+	 * @param distance The distance.
+	 */
+	public void setDistance(int i, int j, double distance) {
+		distances[i][j - rowStarts[i]] = distance;
+	}
+
+	/**
+	 * Get the previous cells of the given cell, which must be within the band.
+	 *
+	 * @param i The row.
+	 * @param j The column.
+	 * @return The previous cells bit mask of the given cell. See {@link #PREVIOUS_ROW},
+	 * {@link #PREVIOUS_COLUMN}, and {@link #PREVIOUS_ROW_AND_COLUMN}.
+	 */
+	public byte getPreviousCells(int i, int j) {
+		long index = rowOffsets[i] + j - rowStarts[i];
+		if (previousCells != null) {
+			return previousCells[(int) index];
+		}
+		return mappedPreviousCells[(int) (index / MAPPED_CHUNK_SIZE)].get((int) (index % MAPPED_CHUNK_SIZE));
+	}
+
+	/**
+	 * Set the previous cells of the given cell, which must be within the band.
+	 *
+	 * @param i The row.
+	 * @param j The column.
+	 * @param mask The previous cells bit mask of the given cell. See {@link #PREVIOUS_ROW},
+	 * {@link #PREVIOUS_COLUMN}, and {@link #PREVIOUS_ROW_AND_COLUMN}.
+	 */
+	public void setPreviousCells(int i, int j, byte mask) {
+		long index = rowOffsets[i] + j - rowStarts[i];
+		if (previousCells != null) {
+			previousCells[(int) index] = mask;
+		} else {
+			mappedPreviousCells[(int) (index / MAPPED_CHUNK_SIZE)].put((int) (index % MAPPED_CHUNK_SIZE), mask);
+		}
+	}
+
+	/**
+	 * Check whether the given cell, which must be within the band, has been marked as lying on some path
+	 * to the final cell.
+	 *
+	 * @param i The row.
+	 * @param j The column.
+	 * @return True if the cell has the {@link #REACHABLE} bit set. False otherwise.
+	 */
+	public boolean isReachable(int i, int j) {
+		return (getPreviousCells(i, j) & REACHABLE) != 0;
+	}
+
+	/**
+	 * Mark the given cell, which must be within the band, as lying on some path to the final cell,
+	 * by setting its {@link #REACHABLE} bit.
+	 *
+	 * @param i The row.
+	 * @param j The column.
+	 */
+	public void setReachable(int i, int j) {
+		setPreviousCells(i, j, (byte) (getPreviousCells(i, j) | REACHABLE));
+	}
+
+	/**
+	 * Get the previous cells of every cell of the given row within the band.
+	 *
+	 * @param i The row.
+	 * @param masks The array in which to store the previous cells bit mask of each cell, indexed by
+	 * column offset from the row's start. It must be at least as long as the row's band.
+	 */
+	void getRowPreviousCells(int i, byte[] masks) {
+		copyRowPreviousCells(i, masks, false);
+	}
+
+	/**
+	 * Set the previous cells of every cell of the given row within the band.
+	 *
+	 * @param i The row.
+	 * @param masks The previous cells bit mask of each cell, indexed by column offset from the row's start.
+	 * It must be at least as long as the row's band.
+	 */
+	void setRowPreviousCells(int i, byte[] masks) {
+		copyRowPreviousCells(i, masks, true);
+	}
+
+	/**
+	 * Copy the previous cells of every cell of the given row within the band to or from the given array.
+	 *
+	 * @param i The row.
+	 * @param masks The previous cells bit mask of each cell, indexed by column offset from the row's start.
+	 * @param set True to copy from the array into the matrix. False to copy from the matrix into the array.
+	 */
+	private void copyRowPreviousCells(int i, byte[] masks, boolean set) {
+		int width = rowEnds[i] - rowStarts[i] + 1;
+		long index = rowOffsets[i];
+
+		if (previousCells != null) {
+			if (set) {
+				System.arraycopy(masks, 0, previousCells, (int) index, width);
+			} else {
+				System.arraycopy(previousCells, (int) index, masks, 0, width);
+			}
+			return;
+		}
+
+		// The row may span two chunks
+		int copied = 0;
+		while (copied < width) {
+			ByteBuffer chunk = mappedPreviousCells[(int) (index / MAPPED_CHUNK_SIZE)].duplicate();
+			chunk.position((int) (index % MAPPED_CHUNK_SIZE));
+			int length = Math.min(width - copied, chunk.remaining());
+			if (set) {
+				chunk.put(masks, copied, length);
+			} else {
+				chunk.get(masks, copied, length);
+			}
+
+			copied += length;
+			index += length;
+		}
+	}
+
+	/**
+	 * Get the distances of the cells of the given row within the band, for a {@link DtwEngine}.
+	 *
+	 * @param i The row.
+	 * @return The distances of the row, indexed by column offset from the row's start. This is the
+	 * matrix's own storage, not a copy.
+	 */
+	double[] getRowDistances(int i) {
+		return distances[i];
+	}
+
+	/**
+	 * Get the index of the first cell of the given row in the previous cells storage, for a {@link DtwEngine}.
+	 *
+	 * @param i The row.
+	 * @return The index of the row's first cell in {@link #getPreviousCellsStorage()}.
+	 */
+	int getRowOffset(int i) {
+		return (int) rowOffsets[i];
+	}
+
+	/**
+	 * Get the previous cells bit masks of every cell within the band, for a {@link DtwEngine}.
+	 *
+	 * @return {@link #previousCells}. This is the matrix's own storage, not a copy. This is null if the matrix is off-heap.
+	 */
+	byte[] getPreviousCellsStorage() {
+		return previousCells;
+	}
+
+	/**
+	 * Get the number of cells within the band.
+	 *
+	 * @return The number of cells within the band.
+	 */
+	public long getBandSize() {
+		return bandSize;
+	}
+
+	/**
+	 * Check whether this matrix is off-heap (see {@link #AlignmentMatrix(int[], int[], int, File)}
+	 * and {@link #AlignmentMatrix(int[], int[], int, FileChannel, long)}).
+	 *
+	 * @return True if this matrix's previous cells are stored off-heap. False otherwise.
+	 */
+	public boolean isOffHeap() {
+		return mappedPreviousCells != null;
+	}
+}
@@ -0,0 +1,239 @@
+package mv2h.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import mv2h.objects.Note;
+
+/**
+ * An <code>AlignmentMatrixCache</code> stores the previous cells of {@link AlignmentMatrix} objects
+ * in files in a directory, so that repeated alignments of the same ground truth and transcription
+ * need not redo the Dynamic Time Warping. Each file is named by a hash of everything on which the
+ * matrix depends: the pitches and onset times of both pieces' note lists, the insertion and deletion
+ * penalty, and the band and anchor settings.
+ * <br>
+ * Only the band and the previous cells are stored, since they are all that is needed to find the
+ * possible alignments. A matrix read from the cache therefore has no distances, and its previous
+ * cells are not copied into memory: it is an off-heap matrix backed by a private (copy-on-write)
+ * mapping of the cache file, which is never modified.
+ * <br>
+ * Unreadable or invalid files are ignored (and overwritten), and errors writing files are printed
+ * to std err, so that the cache never changes the result of an evaluation.
+ *
+ * @author Andrew McLeod
+ */
+public class AlignmentMatrixCache {
+	/**
+	 * The first int of every cache file.
+	 */
+	private static final int MAGIC = 0x4d563248;
+
+	/**
+	 * The version of the cache file format, and of the DTW which creates the matrices. This should be
+	 * incremented whenever either changes, to invalidate old cache files.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The directory in which the cache files are stored.
+	 */
+	private final File directory;
+
+	/**
+	 * Create a new AlignmentMatrixCache in the given directory, creating it if necessary.
+	 *
+	 * @param directory {@link #directory}
+	 */
+	public AlignmentMatrixCache(File directory) {
+		this.directory = directory;
+		directory.mkdirs();
+	}
+
+	/**
+	 * Get the key of the alignment matrix of the given note lists with the given settings.
+	 *
+	 * @param gtNotes The ground truth note lists, split by onset time.
+	 * @param mNotes The transcribed note lists, split by onset time.
+	 * @param penalty The insertion and deletion penalty.
+	 * @param bandRadius The band radius (see {@link mv2h.Main#DTW_BAND_RADIUS}).
+	 * @param multiResolutionRadius The multi-resolution radius (see {@link mv2h.Main#MULTI_RESOLUTION_RADIUS}).
+	 * @param anchorLength The anchor n-gram length (see {@link mv2h.Main#ANCHOR_LENGTH}).
+	 *
+	 * @return The key, as a hex string.
+	 */
+	public static String getKey(List<List<Note>> gtNotes, List<List<Note>> mNotes, double penalty, int bandRadius,
+			int multiResolutionRadius, int anchorLength) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(VERSION).append(' ').append(Double.doubleToLongBits(penalty)).append(' ');
+		sb.append(bandRadius).append(' ').append(multiResolutionRadius).append(' ').append(anchorLength).append('\n');
+		appendNoteLists(sb, gtNotes);
+		appendNoteLists(sb, mNotes);
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8))) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Append the onset time and pitches of each of the given note lists to the given StringBuilder.
+	 *
+	 * @param sb The StringBuilder.
+	 * @param noteLists The note lists.
+	 */
+	private static void appendNoteLists(StringBuilder sb, List<List<Note>> noteLists) {
+		sb.append(noteLists.size()).append('\n');
+		for (List<Note> noteList : noteLists) {
+			sb.append(noteList.get(0).valueOnsetTime);
+			for (Note note : noteList) {
+				sb.append(' ').append(note.pitch);
+			}
+			sb.append('\n');
+		}
+	}
+
+	/**
+	 * Get the file in which the matrix with the given key is stored.
+	 *
+	 * @param key The key, from {@link #getKey(List, List, double, int, int, int)}.
+	 * @return The cache file.
+	 */
+	public File getFile(String key) {
+		return new File(directory, key + ".dtw");
+	}
+
+	/**
+	 * Load the alignment matrix with the given key from the cache.
+	 *
+	 * @param key The key, from {@link #getKey(List, List, double, int, int, int)}.
+	 * @param rows The expected number of rows of the matrix.
+	 * @param columns The expected number of columns of the matrix.
+	 *
+	 * @return The alignment matrix (without distances), or null if it is not in the cache,
+	 * or its file is invalid.
+	 */
+	public AlignmentMatrix load(String key, int rows, int columns) {
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		// A private mapping requires a writable channel, although the file itself is never written
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// Only the header is mapped here: the band is mapped by the matrix itself, in chunks
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					Math.min(channel.size(), 4 * (4 + 2L * rows)));
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != rows || buffer.getInt() != columns) {
+				return null;
+			}
+
+			int[] rowStarts = new int[rows];
+			int[] rowEnds = new int[rows];
+			for (int i = 0; i < rows; i++) {
+				rowStarts[i] = buffer.getInt();
+			}
+			long bandSize = 0;
+			for (int i = 0; i < rows; i++) {
+				rowEnds[i] = buffer.getInt();
+				if (rowStarts[i] < 0 || rowEnds[i] < rowStarts[i] || rowEnds[i] >= columns) {
+					return null;
+				}
+				bandSize += rowEnds[i] - rowStarts[i] + 1;
+			}
+			if (channel.size() - buffer.position() != bandSize) {
+				return null;
+			}
+
+			return new AlignmentMatrix(rowStarts, rowEnds, columns, channel, buffer.position());
+
+		} catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+			System.err.println("Error reading DTW cache file " + file + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Save the given alignment matrix to the cache. The file is written under a temporary name
+	 * and then moved into place, so that a partially written file is never read.
+	 *
+	 * @param key The key, from {@link #getKey(List, List, double, int, int, int)}.
+	 * @param matrix The alignment matrix.
+	 */
+	public void save(String key, AlignmentMatrix matrix) {
+		File file = getFile(key);
+
+		try {
+			File temp = File.createTempFile(key, ".tmp", directory);
+
+			try {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeInt(matrix.rows);
+					out.writeInt(matrix.columns);
+					for (int i = 0; i < matrix.rows; i++) {
+						out.writeInt(matrix.getRowStart(i));
+					}
+					for (int i = 0; i < matrix.rows; i++) {
+						out.writeInt(matrix.getRowEnd(i));
+					}
+					if (!matrix.isOffHeap()) {
+						out.write(matrix.getPreviousCellsStorage());
+
+					} else {
+						byte[] masks = new byte[getMaxWidth(matrix)];
+						for (int i = 0; i < matrix.rows; i++) {
+							matrix.getRowPreviousCells(i, masks);
+							out.write(masks, 0, matrix.getRowEnd(i) - matrix.getRowStart(i) + 1);
+						}
+					}
+				}
+
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			} finally {
+				temp.delete();
+			}
+
+		} catch (IOException e) {
+			System.err.println("Error writing DTW cache file " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * Get the width of the widest row of the given matrix's band.
+	 *
+	 * @param matrix The alignment matrix.
+	 * @return The number of cells within the band of its widest row.
+	 */
+	private static int getMaxWidth(AlignmentMatrix matrix) {
+		int maxWidth = 0;
+		for (int i = 0; i < matrix.rows; i++) {
+			maxWidth = Math.max(maxWidth, matrix.getRowEnd(i) - matrix.getRowStart(i) + 1);
+		}
+		return maxWidth;
+	}
+}
@@ -1,6 +1,7 @@
 package mv2h.tools;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.math.BigInteger;
 
@@ -24,9 +25,28 @@ public class AlignmentNode {
     public final int value;
 
     /**
-     * How many alignment lists pass through this node.
+     * The index of the ground truth note list whose alignment is given by {@link #value}.
+     * This is also the index of this node's {@link #value} in any alignment list generated from it.
      */
-    public final BigInteger count;
+    public final int groundTruthIndex;
+
+    /**
+     * A value used in place of a long count of alignment lists which does not fit in a long
+     * (see {@link AlignmentIterator.NodeFilter}).
+     */
+    public static final long COUNT_OVERFLOW = -1L;
+
+    /**
+     * How many alignment lists pass through this node, or {@link #COUNT_OVERFLOW} if this
+     * does not fit in a long.
+     */
+    private final long count;
+
+    /**
+     * How many alignment lists pass through this node, if this does not fit in a long.
+     * Null otherwise.
+     */
+    private final BigInteger bigCount;
 
     /**
      * Create a new AlignmentNode.
@@ -37,12 +57,107 @@ public class AlignmentNode {
 	public AlignmentNode(List<AlignmentNode> prevList, int value) {
 		this.prevList = prevList;
         this.value = value;
+        this.groundTruthIndex = prevList.isEmpty() ? 0 : prevList.get(0).groundTruthIndex + 1;
 
-        BigInteger count = new BigInteger("0");
+        // Sum the counts as longs, only switching to a BigInteger on overflow
+        long count = 0;
+        BigInteger bigCount = null;
         for (AlignmentNode prev : this.prevList) {
-            count = count.add(prev.count);
+            if (bigCount == null) {
+                if (prev.count != COUNT_OVERFLOW && count <= Long.MAX_VALUE - prev.count) {
+                    count += prev.count;
+                    continue;
+                }
+
+                bigCount = BigInteger.valueOf(count);
+            }
+
+            bigCount = bigCount.add(prev.getCount());
+        }
+
+        this.count = bigCount == null ? Math.max(count, 1L) : COUNT_OVERFLOW;
+        this.bigCount = bigCount;
+	}
+
+    /**
+     * Check whether the number of alignment lists which pass through this node fits in a long.
+     *
+     * @return True if {@link #getLongCount()} can be used. False otherwise.
+     */
+    public boolean hasLongCount() {
+        return bigCount == null;
+    }
+
+    /**
+     * Get the number of alignment lists which pass through this node.
+     *
+     * @return How many alignment lists pass through this node.
+     */
+    public BigInteger getCount() {
+        return bigCount == null ? BigInteger.valueOf(count) : bigCount;
+    }
+
+    /**
+     * Get the number of alignment lists which pass through this node as a long. This is faster
+     * than {@link #getCount()}, but can only be used if {@link #hasLongCount()} is true.
+     *
+     * @return How many alignment lists pass through this node.
+     *
+     * @throws ArithmeticException If the number does not fit in a long.
+     */
+    public long getLongCount() {
+        if (bigCount != null) {
+            throw new ArithmeticException("Alignment count does not fit in a long: " + bigCount);
+        }
+        return count;
+    }
+
+    /**
+     * Generate an alignment list from the node. This can only be used if {@link #hasLongCount()}
+     * is true. Otherwise, use {@link #getAlignment(BigInteger)}.
+     *
+     * @param index The index of the alignment node to return (since multiple lists pass
+     * through this node).
+     *
+     * @return An alignment for this node.
+     * An alignment is a list containing, for each ground truth note, the index of the transcription
+	 * note to which it is aligned, or -1 if it was not aligned with any transcription note.
+     *
+     * @throws IndexOutOfBoundsException If the index is negative, or not less than {@link #getLongCount()}.
+     */
+	public List<Integer> getAlignment(long index) {
+        if (index < 0 || index >= getLongCount()) {
+            throw new IndexOutOfBoundsException("Alignment index " + index + " out of range for " + count + " alignments.");
+        }
+
+        List<Integer> alignment = new ArrayList<Integer>();
+
+        // Walk backwards through the list iteratively, so that long pieces do not overflow the stack
+        AlignmentNode node = this;
+        while (true) {
+            alignment.add(node.value);
+
+            if (node.prevList.isEmpty()) {
+                // Base case
+                break;
+            }
+
+            // Find the correct previous node based on the index
+            for (AlignmentNode prev : node.prevList) {
+                if (index < prev.count) {
+                    // Previous node found.
+                    node = prev;
+                    break;
+                }
+
+                // Previous node not yet found. Decrememnt index and find the previous list.
+                index -= prev.count;
+            }
         }
-        this.count = count.max(new BigInteger("1"));
+
+        Collections.reverse(alignment);
+
+		return alignment;
 	}
 
     /**
@@ -54,30 +169,40 @@ public class AlignmentNode {
      * @return An alignment for this node.
      * An alignment is a list containing, for each ground truth note, the index of the transcription
 	 * note to which it is aligned, or -1 if it was not aligned with any transcription note.
+     *
+     * @throws IndexOutOfBoundsException If the index is negative, or not less than {@link #getCount()}.
      */
 	public List<Integer> getAlignment(BigInteger index) {
-        List<Integer> alignment = null;
+        if (index.signum() < 0 || index.compareTo(getCount()) >= 0) {
+            throw new IndexOutOfBoundsException("Alignment index " + index + " out of range for " + getCount() + " alignments.");
+        }
+
+        List<Integer> alignment = new ArrayList<Integer>();
 
-        if (prevList.isEmpty()) {
-            // Base case
-            alignment = new ArrayList<Integer>();
+        // Walk backwards through the list iteratively, so that long pieces do not overflow the stack
+        AlignmentNode node = this;
+        while (!node.hasLongCount()) {
+            alignment.add(node.value);
 
-        } else {
             // Find the correct previous node based on the index
-            for (AlignmentNode prev : prevList) {
-                if (index.compareTo(prev.count) < 0) {
-                    // Previous node found. Get prev list.
-                    alignment = prev.getAlignment(index);
+            for (AlignmentNode prev : node.prevList) {
+                BigInteger prevCount = prev.getCount();
+                if (index.compareTo(prevCount) < 0) {
+                    // Previous node found.
+                    node = prev;
                     break;
                 }
 
                 // Previous node not yet found. Decrememnt index and find the previous list.
-                index = index.subtract(prev.count);
+                index = index.subtract(prevCount);
             }
         }
 
-        alignment.add(value);
+        // The rest of the list can be found using long arithmetic
+        List<Integer> prefix = node.getAlignment(index.longValue());
+        Collections.reverse(alignment);
+        prefix.addAll(alignment);
 
-		return alignment;
+		return prefix;
 	}
 }
@@ -0,0 +1,172 @@
+package mv2h.tools;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * An <code>AlignmentSpliterator</code> is a {@link Spliterator} over the alignments of a list of root
+ * {@link AlignmentNode}s, in index order, which can be split by index range for parallel consumption
+ * (for example, with {@link java.util.stream.StreamSupport#stream(Spliterator, boolean)}).
+ * <br>
+ * Each alignment is generated by an {@link AlignmentIterator}, and so is passed in a reusable
+ * <code>int[]</code> buffer (one per split), which consumers must copy if they need to keep it.
+ * A spliterator can only be split before it has started traversal, and only if its alignments
+ * are indexed (see {@link AlignmentIterator#isIndexed()}).
+ * <br>
+ * Rather than traversing with {@link #tryAdvance(Consumer)}, a consumer can take the underlying iterator
+ * of a split (see {@link #iterator(AlignmentIterator.NodeFilter)}), to prune its search and to read the index
+ * and changed entries of each alignment. {@link AlignmentEvaluator} divides a parallel search this way.
+ *
+ * @author Andrew McLeod
+ */
+public class AlignmentSpliterator implements Spliterator<int[]> {
+	/**
+	 * The root nodes.
+	 */
+	private final List<AlignmentNode> roots;
+
+	/**
+	 * Whether the total number of alignments fits in a long, so that alignments can be indexed.
+	 */
+	private final boolean indexed;
+
+	/**
+	 * The first alignment index of this spliterator, inclusive.
+	 */
+	private long start;
+
+	/**
+	 * The last alignment index of this spliterator, exclusive.
+	 */
+	private final long end;
+
+	/**
+	 * The iterator used for traversal, or null if traversal has not yet started.
+	 */
+	private AlignmentIterator iterator;
+
+	/**
+	 * Create a new AlignmentSpliterator over all of the alignments of the given roots.
+	 *
+	 * @param roots {@link #roots}
+	 */
+	public AlignmentSpliterator(List<AlignmentNode> roots) {
+		this(roots, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Create a new AlignmentSpliterator over the alignments of the given roots with indices in the given range.
+	 * If the alignments are not indexed, the range is ignored.
+	 *
+	 * @param roots {@link #roots}
+	 * @param start {@link #start}
+	 * @param end {@link #end}
+	 */
+	public AlignmentSpliterator(List<AlignmentNode> roots, long start, long end) {
+		this.roots = roots;
+
+		BigInteger total = AlignmentIterator.getTotal(roots);
+		indexed = total.bitLength() < Long.SIZE;
+		this.start = indexed ? start : 0;
+		this.end = indexed ? Math.min(end, total.longValue()) : Long.MAX_VALUE;
+		iterator = null;
+	}
+
+	/**
+	 * Create a new AlignmentSpliterator over part of the range of another.
+	 *
+	 * @param parent The spliterator being split.
+	 * @param start {@link #start}
+	 * @param end {@link #end}
+	 */
+	private AlignmentSpliterator(AlignmentSpliterator parent, long start, long end) {
+		this.roots = parent.roots;
+		this.indexed = parent.indexed;
+		this.start = start;
+		this.end = end;
+		iterator = null;
+	}
+
+	/**
+	 * Start the traversal of this spliterator's alignments with the given filter, and get the iterator
+	 * which performs it. Once this has been called, this spliterator can no longer be split, and
+	 * {@link #tryAdvance(Consumer)} continues from the iterator's position.
+	 *
+	 * @param filter The filter used to prune the search, or null to search every node.
+	 * @return The iterator over this spliterator's alignments.
+	 *
+	 * @throws IllegalStateException If traversal has already started.
+	 */
+	public AlignmentIterator iterator(AlignmentIterator.NodeFilter filter) {
+		if (iterator != null) {
+			throw new IllegalStateException("Alignment spliterator traversal has already started.");
+		}
+
+		iterator = new AlignmentIterator(roots, start, end, filter);
+		return iterator;
+	}
+
+	/**
+	 * Get the first alignment index of this spliterator.
+	 *
+	 * @return {@link #start}
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Get the last alignment index of this spliterator, exclusive.
+	 *
+	 * @return {@link #end}
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super int[]> action) {
+		if (iterator == null) {
+			iterator = new AlignmentIterator(roots, start, end, null);
+		}
+
+		if (!iterator.hasNext()) {
+			return false;
+		}
+
+		action.accept(iterator.next());
+		return true;
+	}
+
+	@Override
+	public AlignmentSpliterator trySplit() {
+		if (iterator != null || !indexed || end - start < 2) {
+			return null;
+		}
+
+		long mid = start + (end - start) / 2;
+		AlignmentSpliterator prefix = new AlignmentSpliterator(this, start, mid);
+		start = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		if (!indexed) {
+			return Long.MAX_VALUE;
+		}
+
+		if (iterator == null || iterator.getIndex() == -1) {
+			return end - start;
+		}
+
+		return end - iterator.getIndex() - 1;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL | (indexed ? SIZED | SUBSIZED : 0);
+	}
+}
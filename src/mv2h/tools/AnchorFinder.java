@@ -0,0 +1,157 @@
+package mv2h.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import mv2h.objects.Note;
+
+/**
+ * The <code>AnchorFinder</code> class is used to find anchors: cells of an {@link AlignmentMatrix} which
+ * the alignment path is very likely to reach by a diagonal step (aligning their note lists), so that the Dynamic Time Warping need only be performed
+ * between consecutive anchors (see {@link Aligner}).
+ * <br>
+ * An anchor is an n-gram (the pitch sets of some number of consecutive note lists) which occurs exactly
+ * once in both the ground truth and the transcription. In long pieces, such exact matches are almost always
+ * correctly aligned. The n-grams are found by hashing, and the longest chain of matches which is monotone
+ * in both pieces is kept. Each note list of each n-gram in the chain is then pinned to its match.
+ *
+ * @author Andrew McLeod
+ */
+public class AnchorFinder {
+	/**
+	 * Get the anchor cells of the alignment matrix of the given note lists.
+	 *
+	 * @param gtNotes The ground truth note lists, split by onset time.
+	 * @param mNotes The transcribed note lists, split by onset time.
+	 * @param length The number of consecutive note lists in each n-gram.
+	 *
+	 * @return The anchor cells, as an array containing the row and the column of each anchor. The rows and
+	 * columns are both strictly increasing. An anchor cell is reached by a diagonal step, aligning its note lists.
+	 */
+	public static int[][] getAnchors(List<List<Note>> gtNotes, List<List<Note>> mNotes, int length) {
+		Map<String, Integer> gtNGrams = getUniqueNGrams(gtNotes, length);
+		Map<String, Integer> mNGrams = getUniqueNGrams(mNotes, length);
+
+		// Find the matches, in ground truth order
+		List<int[]> matches = new ArrayList<int[]>();
+		for (int gtIndex = 0; gtIndex + length <= gtNotes.size(); gtIndex++) {
+			String nGram = getNGram(gtNotes, gtIndex, length);
+			Integer mIndex = mNGrams.get(nGram);
+			if (gtNGrams.get(nGram) == gtIndex && mIndex != null && mIndex != -1) {
+				matches.add(new int[] {gtIndex, mIndex});
+			}
+		}
+
+		// Pin each note list of the chain's n-grams
+		List<int[]> anchors = new ArrayList<int[]>();
+		int previousRow = 0;
+		int previousColumn = 0;
+		for (int[] match : getLongestChain(matches)) {
+			for (int offset = 0; offset < length; offset++) {
+				int row = match[0] + offset + 1;
+				int column = match[1] + offset + 1;
+
+				// Only cell (0, 0) of row 0 is reachable, so an anchor in row 1 must be in column 1
+				if (row > previousRow && column > previousColumn && (row > 1 || column == 1)) {
+					anchors.add(new int[] {row, column});
+					previousRow = row;
+					previousColumn = column;
+				}
+			}
+		}
+
+		int[][] anchorCells = new int[2][anchors.size()];
+		for (int i = 0; i < anchors.size(); i++) {
+			anchorCells[0][i] = anchors.get(i)[0];
+			anchorCells[1][i] = anchors.get(i)[1];
+		}
+		return anchorCells;
+	}
+
+	/**
+	 * Get the n-grams of the given note lists which occur exactly once.
+	 *
+	 * @param noteLists The note lists.
+	 * @param length The number of consecutive note lists in each n-gram.
+	 *
+	 * @return A Map from each n-gram (see {@link #getNGram(List, int, int)}) to the index of its first
+	 * note list, or -1 if it occurs more than once.
+	 */
+	private static Map<String, Integer> getUniqueNGrams(List<List<Note>> noteLists, int length) {
+		Map<String, Integer> nGrams = new HashMap<String, Integer>();
+		for (int index = 0; index + length <= noteLists.size(); index++) {
+			String nGram = getNGram(noteLists, index, length);
+			nGrams.put(nGram, nGrams.containsKey(nGram) ? -1 : index);
+		}
+		return nGrams;
+	}
+
+	/**
+	 * Get the n-gram starting at the given index of the given note lists.
+	 *
+	 * @param noteLists The note lists.
+	 * @param index The index of the first note list of the n-gram.
+	 * @param length The number of consecutive note lists in the n-gram.
+	 *
+	 * @return The n-gram, as a String of the pitch set of each of its note lists.
+	 */
+	private static String getNGram(List<List<Note>> noteLists, int index, int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = index; i < index + length; i++) {
+			TreeSet<Integer> pitches = new TreeSet<Integer>();
+			for (Note note : noteLists.get(i)) {
+				pitches.add(note.pitch);
+			}
+			sb.append(pitches).append(';');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the longest chain of the given matches whose transcription indices are strictly increasing.
+	 *
+	 * @param matches The matches, as arrays of a ground truth index and a transcription index, in strictly
+	 * increasing order of ground truth index.
+	 *
+	 * @return The longest chain, in order.
+	 */
+	private static List<int[]> getLongestChain(List<int[]> matches) {
+		// For each chain length, the index of the match which ends the chain of that length with the smallest
+		// transcription index. The matches' previous matches link each chain.
+		List<Integer> chainEnds = new ArrayList<Integer>();
+		int[] previousMatches = new int[matches.size()];
+
+		for (int i = 0; i < matches.size(); i++) {
+			int mIndex = matches.get(i)[1];
+
+			int low = 0;
+			int high = chainEnds.size();
+			while (low < high) {
+				int middle = (low + high) / 2;
+				if (matches.get(chainEnds.get(middle))[1] < mIndex) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			previousMatches[i] = low == 0 ? -1 : chainEnds.get(low - 1);
+			if (low == chainEnds.size()) {
+				chainEnds.add(i);
+			} else {
+				chainEnds.set(low, i);
+			}
+		}
+
+		List<int[]> chain = new ArrayList<int[]>();
+		for (int i = chainEnds.isEmpty() ? -1 : chainEnds.get(chainEnds.size() - 1); i != -1; i = previousMatches[i]) {
+			chain.add(matches.get(i));
+		}
+		Collections.reverse(chain);
+		return chain;
+	}
+}
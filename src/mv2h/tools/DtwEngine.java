@@ -0,0 +1,36 @@
+package mv2h.tools;
+
+/**
+ * A <code>DtwEngine</code> computes the Dynamic Time Warping recurrence used by {@link Aligner},
+ * one row (or a contiguous range of one row's cells) of an {@link AlignmentMatrix} at a time, once the
+ * local distances of those cells have been calculated.
+ * <br>
+ * For each cell (i, j) within the band (except in column 0, whose cells are unreachable), the distance
+ * is the minimum of the distance of (i - 1, j) plus the penalty, the distance of (i, j - 1) plus the
+ * penalty, and the distance of (i - 1, j - 1) plus the local distance. Its previous cells are those
+ * steps which give that minimum (or none if it is infinite). Cells outside of the band have infinite
+ * distance. Every engine must give bit-identical distances and previous cells, and must be thread-safe,
+ * since different ranges of the matrix may be filled in parallel.
+ *
+ * @author Andrew McLeod
+ */
+public interface DtwEngine {
+	/**
+	 * Compute a range of cells of one row of the DTW recurrence. The cells of the previous row,
+	 * and those of this row before the range, must already have been computed.
+	 *
+	 * @param previousRow The distances of the previous row's cells within its band.
+	 * @param previousStart The first column of the previous row's band.
+	 * @param row The distances of this row's cells within its band. Those within the range will be set.
+	 * @param rowStart The first column of this row's band.
+	 * @param from The first cell of the range, as a column offset from the row's start.
+	 * @param to The last cell of the range (exclusive), as a column offset from the row's start.
+	 * @param localDistances The local distance of each cell of the range (with the first at index 0),
+	 * ignored in column 0.
+	 * @param previousCells The previous cells bit masks of the matrix. Those of the range's cells will be set.
+	 * @param previousCellsOffset The index in previousCells of the first cell of this row.
+	 * @param penalty The penalty for a non-aligned note list.
+	 */
+	public void fillRow(double[] previousRow, int previousStart, double[] row, int rowStart, int from, int to,
+			double[] localDistances, byte[] previousCells, int previousCellsOffset, double penalty);
+}
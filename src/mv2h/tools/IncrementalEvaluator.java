@@ -0,0 +1,318 @@
+package mv2h.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import mv2h.objects.MV2H;
+import mv2h.objects.Music;
+import mv2h.objects.Note;
+
+/**
+ * An <code>IncrementalEvaluator</code> evaluates a sequence of alignments of a transcription to a
+ * ground truth, as generated by an {@link AlignmentIterator}, reusing work from the previous alignment.
+ * <br>
+ * Consecutive alignments differ only in their first few entries (see {@link AlignmentIterator#getChangedCount()}).
+ * Since the anchors of an alignment are monotonic, every transcription time at or after the transcription
+ * note list of the first unchanged anchor is converted using only unchanged anchors (as long as there are
+ * at least two of them), and so its converted time is unchanged. Only the earlier times are re-converted,
+ * and the aligned transcription is then built from the kept converted times (see {@link Music#align(int[])}),
+ * so that none of its notes' times are converted again.
+ * <br>
+ * The meter and harmony scores are reused whenever none of their converted times has changed, and the
+ * whole {@link MV2H} result is reused if no converted time has changed at all. If a {@link TimeMapCache}
+ * is given, the result is also reused for any alignment whose converted times match those of any previously
+ * scored alignment (see {@link #isDuplicate()}). The multi-pitch, voice,
+ * and value scores are otherwise recalculated in full, since the greedy note matching and voice connections
+ * that they rely on are not separable at the point of divergence. Scoring a new time map therefore still
+ * takes time linear in the length of the piece: only the time conversion is limited to the changed region.
+ * <br>
+ * An IncrementalEvaluator is not thread-safe: each thread should use its own.
+ *
+ * @author Andrew McLeod
+ */
+public class IncrementalEvaluator {
+	/**
+	 * The ground truth.
+	 */
+	private final Music groundTruth;
+
+	/**
+	 * The transcription, to be aligned to the ground truth.
+	 */
+	private final Music transcription;
+
+	/**
+	 * The onset time of each transcription note list.
+	 */
+	private final int[] transcriptionListTimes;
+
+	/**
+	 * Every time which is converted when aligning the transcription, in increasing order.
+	 */
+	private final int[] times;
+
+	/**
+	 * Whether each time in {@link #times} is used to create the aligned meter.
+	 */
+	private final boolean[] isMeterTime;
+
+	/**
+	 * Whether each time in {@link #times} is used to create the aligned key and chord progressions.
+	 */
+	private final boolean[] isHarmonyTime;
+
+	/**
+	 * The converted time of each time in {@link #times}, under the previous alignment.
+	 */
+	private final int[] alignedTimes;
+
+	/**
+	 * The scores of previously scored time maps, or null to only reuse the previous alignment's scores.
+	 */
+	private final TimeMapCache cache;
+
+	/**
+	 * Whether the cached values are valid (an alignment has been evaluated).
+	 */
+	private boolean valid;
+
+	/**
+	 * The meter score of the previous alignment.
+	 */
+	private double meterF1;
+
+	/**
+	 * Whether {@link #meterF1} is the meter score of the converted times in {@link #alignedTimes}.
+	 */
+	private boolean meterValid;
+
+	/**
+	 * The harmony score of the previous alignment.
+	 */
+	private double harmonyScore;
+
+	/**
+	 * Whether {@link #harmonyScore} is the harmony score of the converted times in {@link #alignedTimes}.
+	 */
+	private boolean harmonyValid;
+
+	/**
+	 * Whether the time map of the previous alignment had already been scored.
+	 */
+	private boolean duplicate;
+
+	/**
+	 * The result of the previous evaluation.
+	 */
+	private MV2H result;
+
+	/**
+	 * The number of times which were re-converted for the previous alignment.
+	 */
+	private int convertedCount;
+
+	/**
+	 * Create a new IncrementalEvaluator with no {@link TimeMapCache}.
+	 *
+	 * @param groundTruth {@link #groundTruth}
+	 * @param transcription {@link #transcription}
+	 */
+	public IncrementalEvaluator(Music groundTruth, Music transcription) {
+		this(groundTruth, transcription, null);
+	}
+
+	/**
+	 * Create a new IncrementalEvaluator.
+	 *
+	 * @param groundTruth {@link #groundTruth}
+	 * @param transcription {@link #transcription}
+	 * @param cache {@link #cache}
+	 */
+	public IncrementalEvaluator(Music groundTruth, Music transcription, TimeMapCache cache) {
+		this.groundTruth = groundTruth;
+		this.transcription = transcription;
+		this.cache = cache;
+
+		List<List<Note>> transcriptionNoteLists = transcription.getNoteLists();
+		transcriptionListTimes = new int[transcriptionNoteLists.size()];
+		for (int i = 0; i < transcriptionListTimes.length; i++) {
+			transcriptionListTimes[i] = transcriptionNoteLists.get(i).get(0).valueOnsetTime;
+		}
+
+		Set<Integer> meterTimes = transcription.getMeterTimes();
+		Set<Integer> harmonyTimes = transcription.getHarmonyTimes();
+
+		Set<Integer> allTimes = transcription.getTimes();
+		times = new int[allTimes.size()];
+		isMeterTime = new boolean[times.length];
+		isHarmonyTime = new boolean[times.length];
+		int i = 0;
+		for (int time : allTimes) {
+			times[i] = time;
+			isMeterTime[i] = meterTimes.contains(time);
+			isHarmonyTime[i] = harmonyTimes.contains(time);
+			i++;
+		}
+
+		alignedTimes = new int[times.length];
+		valid = false;
+		meterValid = false;
+		harmonyValid = false;
+		duplicate = false;
+		convertedCount = 0;
+	}
+
+	/**
+	 * Evaluate the given alignment, unless its score is guaranteed to be below some threshold.
+	 * The threshold must not be lower than that of the previous call.
+	 *
+	 * @param alignment The alignment.
+	 * An alignment is a list containing, for each ground truth note list, the index of the transcription
+	 * note list to which it is aligned, or -1 if it was not aligned with any transcription note.
+	 * @param changedCount The number of leading entries of the alignment which may differ from the
+	 * previously evaluated alignment.
+	 * @param threshold The MV2H score below which evaluation can be stopped early.
+	 *
+	 * @return The MV2H evaluation scores object, or null if its score is guaranteed to be below
+	 * the threshold.
+	 */
+	public MV2H evaluate(List<Integer> alignment, int changedCount, double threshold) {
+		int convertEnd = valid ? getConvertEnd(alignment, changedCount) : times.length;
+
+		// Re-convert the times which may have changed
+		boolean timesChanged = !valid;
+		boolean meterChanged = !valid;
+		boolean harmonyChanged = !valid;
+
+		TimeMap timeMap = Aligner.getTimeMap(groundTruth, transcription, alignment);
+		for (int i = 0; i < convertEnd; i++) {
+			int alignedTime = timeMap.convert(times[i]);
+
+			if (alignedTime != alignedTimes[i]) {
+				alignedTimes[i] = alignedTime;
+				timesChanged = true;
+				meterChanged |= isMeterTime[i];
+				harmonyChanged |= isHarmonyTime[i];
+			}
+		}
+		convertedCount = convertEnd;
+		valid = true;
+
+		if (!timesChanged) {
+			// The aligned transcription is identical. The previous threshold was no higher, so a
+			// previously pruned alignment is pruned again.
+			duplicate = result != null;
+			return result;
+		}
+
+		if (cache != null) {
+			MV2H scored = cache.get(alignedTimes);
+			if (scored != null) {
+				// This time map has already been scored
+				duplicate = true;
+				meterValid = false;
+				harmonyValid = false;
+				result = scored;
+				return result;
+			}
+		}
+		duplicate = false;
+
+		Music aligned = transcription.align(alignedTimes);
+
+		if (meterChanged || !meterValid) {
+			meterF1 = groundTruth.evaluateMeter(aligned);
+			meterValid = true;
+		}
+
+		if (harmonyChanged || !harmonyValid) {
+			harmonyScore = groundTruth.evaluateHarmony(aligned);
+			harmonyValid = true;
+		}
+
+		result = groundTruth.evaluateTranscription(aligned, threshold, meterF1, harmonyScore);
+
+		if (cache != null && result != null) {
+			cache.put(alignedTimes, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Check whether the last evaluated alignment's time map had already been scored, so that its
+	 * result was reused.
+	 *
+	 * @return {@link #duplicate}
+	 */
+	public boolean isDuplicate() {
+		return duplicate;
+	}
+
+	/**
+	 * Get the number of leading times in {@link #times} whose converted time may have changed,
+	 * given an alignment and the number of its leading entries which have changed.
+	 *
+	 * @param alignment The alignment.
+	 * @param changedCount The number of leading entries of the alignment which may have changed.
+	 *
+	 * @return The number of leading times to re-convert.
+	 */
+	private int getConvertEnd(List<Integer> alignment, int changedCount) {
+		// Find the first two unchanged anchors
+		int firstAnchor = -1;
+		boolean secondAnchorFound = false;
+		for (int i = changedCount; i < alignment.size(); i++) {
+			if (alignment.get(i) != -1) {
+				if (firstAnchor != -1) {
+					secondAnchorFound = true;
+					break;
+				}
+
+				firstAnchor = i;
+			}
+		}
+
+		if (!secondAnchorFound) {
+			// Converted times beyond the last anchor may depend on changed anchors
+			return times.length;
+		}
+
+		// Every time before the first unchanged anchor's transcription time may have changed
+		int index = Arrays.binarySearch(times, transcriptionListTimes[alignment.get(firstAnchor)]);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	/**
+	 * Get the number of times which were re-converted for the last evaluated alignment.
+	 *
+	 * @return {@link #convertedCount}
+	 */
+	public int getConvertedCount() {
+		return convertedCount;
+	}
+
+	/**
+	 * Get the total number of times which are converted when aligning the transcription.
+	 *
+	 * @return The length of {@link #times}.
+	 */
+	public int getTimeCount() {
+		return times.length;
+	}
+
+	/**
+	 * Convert an alignment array from {@link AlignmentIterator} to a list.
+	 *
+	 * @param alignment The alignment array.
+	 * @return A new list with the same values.
+	 */
+	public static List<Integer> toList(int[] alignment) {
+		List<Integer> list = new ArrayList<Integer>(alignment.length);
+		for (int value : alignment) {
+			list.add(value);
+		}
+		return list;
+	}
+}
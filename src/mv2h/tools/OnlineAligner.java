@@ -0,0 +1,416 @@
+package mv2h.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import mv2h.Main;
+import mv2h.objects.Music;
+import mv2h.objects.Note;
+
+/**
+ * An <code>OnlineAligner</code> aligns a transcription to a pre-loaded ground truth as the transcription's
+ * note lists arrive, for evaluating live transcription.
+ * <br>
+ * It performs the same Dynamic Time Warping as {@link Aligner} (with ground truth note lists as rows and
+ * transcription note lists as columns), but one column at a time, and only within a window of rows around
+ * the best cell of the previous column. The best cell of each column is the one with the lowest distance
+ * per step. The previous cells of only the most recent columns (the latency) are kept. When a column
+ * becomes older than that, the best path is traced back from the newest column to it, and the anchor on
+ * that path in that column (if any) is committed, and never changes afterwards.
+ * <br>
+ * Each incoming note list therefore takes time and memory bounded by the window radius and the latency,
+ * rather than by the length of the ground truth or the transcription. The only memory which grows with
+ * the transcription is the committed anchors themselves (at most one per note list), which make up the
+ * time map. The current best time map (the
+ * committed anchors, followed by the anchors on the current best path) is available at any time, and
+ * every time up to {@link #getCommittedTime()} is converted by it in the same way as by every later map.
+ * <br>
+ * Unlike {@link Aligner}, only a single alignment is found.
+ *
+ * @author Andrew McLeod
+ */
+public class OnlineAligner {
+	/**
+	 * The pitch histograms of the ground truth note lists.
+	 */
+	private final PitchHistogram[] gtHistograms;
+
+	/**
+	 * The onset time of each ground truth note list.
+	 */
+	private final int[] gtTimes;
+
+	/**
+	 * The radius of the window of rows computed for each column.
+	 */
+	private final int radius;
+
+	/**
+	 * The number of the most recent columns whose previous cells are kept.
+	 */
+	private final int latency;
+
+	/**
+	 * The number of transcription note lists which have been added (the newest column).
+	 */
+	private int columns;
+
+	/**
+	 * The onset time of the transcription note list of each kept column, indexed by column modulo
+	 * (latency + 2).
+	 */
+	private final int[] columnTimes;
+
+	/**
+	 * The first row of the window of each kept column, indexed by column modulo (latency + 2).
+	 */
+	private final int[] windowStarts;
+
+	/**
+	 * The previous cells of each row in the window of each kept column, indexed by column modulo
+	 * (latency + 2). See {@link AlignmentMatrix#PREVIOUS_ROW}, {@link AlignmentMatrix#PREVIOUS_COLUMN},
+	 * and {@link AlignmentMatrix#PREVIOUS_ROW_AND_COLUMN}.
+	 */
+	private final byte[][] previousCells;
+
+	/**
+	 * The distance of each row in the window of the newest column.
+	 */
+	private double[] distances;
+
+	/**
+	 * The first row of the window of the newest column.
+	 */
+	private int windowStart;
+
+	/**
+	 * The best row of the newest column.
+	 */
+	private int bestRow;
+
+	/**
+	 * The oldest column whose previous cells are kept.
+	 */
+	private int oldestColumn;
+
+	/**
+	 * The ground truth note list index of each committed anchor.
+	 */
+	private final List<Integer> anchorGtIndices;
+
+	/**
+	 * The transcription note list index of each committed anchor.
+	 */
+	private final List<Integer> anchorTranscriptionIndices;
+
+	/**
+	 * The transcription time of each committed anchor.
+	 */
+	private final List<Integer> anchorTranscriptionTimes;
+
+	/**
+	 * Whether the transcription has finished.
+	 */
+	private boolean finished;
+
+	/**
+	 * Create a new OnlineAligner.
+	 *
+	 * @param groundTruth The ground truth.
+	 * @param radius {@link #radius}. Must be at least 1, so that each window contains the previous best row.
+	 * @param latency {@link #latency}. Must be at least 1.
+	 */
+	public OnlineAligner(Music groundTruth, int radius, int latency) {
+		if (radius < 1 || latency < 1) {
+			throw new IllegalArgumentException("Online window radius and latency must be at least 1. Given: " +
+					radius + " and " + latency);
+		}
+
+		List<List<Note>> gtNotes = groundTruth.getNoteLists();
+		gtHistograms = new PitchHistogram[gtNotes.size()];
+		gtTimes = new int[gtNotes.size()];
+		for (int i = 0; i < gtHistograms.length; i++) {
+			gtHistograms[i] = new PitchHistogram(gtNotes.get(i));
+			gtTimes[i] = gtNotes.get(i).get(0).valueOnsetTime;
+		}
+
+		this.radius = radius;
+		this.latency = latency;
+
+		columns = 0;
+		columnTimes = new int[latency + 2];
+		windowStarts = new int[latency + 2];
+		previousCells = new byte[latency + 2][];
+
+		// Column 0 contains only the starting cell
+		distances = new double[] { 0.0 };
+		windowStart = 0;
+		bestRow = 0;
+		oldestColumn = 1;
+
+		anchorGtIndices = new ArrayList<Integer>();
+		anchorTranscriptionIndices = new ArrayList<Integer>();
+		anchorTranscriptionTimes = new ArrayList<Integer>();
+		finished = false;
+	}
+
+	/**
+	 * Add the next transcription note list, and align it.
+	 *
+	 * @param noteList The notes of the next transcription note list, which all share the same
+	 * value onset time.
+	 */
+	public void addNoteList(List<Note> noteList) {
+		if (finished) {
+			throw new IllegalStateException("Cannot add a note list after the transcription has finished.");
+		}
+
+		PitchHistogram histogram = new PitchHistogram(noteList);
+		int column = ++columns;
+		columnTimes[column % columnTimes.length] = noteList.get(0).valueOnsetTime;
+
+		// Center the window on a diagonal step from the previous best cell
+		int previousWindowStart = windowStart;
+		double[] previousDistances = distances;
+		windowStart = Math.max(0, bestRow + 1 - radius);
+		int windowEnd = Math.min(gtHistograms.length, bestRow + 1 + radius);
+
+		distances = new double[windowEnd - windowStart + 1];
+		byte[] columnPreviousCells = new byte[distances.length];
+
+		for (int i = windowStart; i <= windowEnd; i++) {
+			if (i == 0) {
+				distances[0] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+
+			double distance = histogram.getDistance(gtHistograms[i - 1]);
+
+			double distance_i_1 = i - 1 >= windowStart ? distances[i - 1 - windowStart] + Main.NON_ALIGNMENT_PENALTY : Double.POSITIVE_INFINITY;
+			double distance_j_1 = getDistance(previousDistances, previousWindowStart, i) + Main.NON_ALIGNMENT_PENALTY;
+			double distance_i_j_1 = getDistance(previousDistances, previousWindowStart, i - 1) + distance;
+
+			double min_distance = Math.min(Math.min(distance_i_1, distance_j_1), distance_i_j_1);
+			distances[i - windowStart] = min_distance;
+
+			if (min_distance == Double.POSITIVE_INFINITY) {
+				// Unreachable cell (outside of the window)
+				continue;
+			}
+
+			byte previous = 0;
+			if (distance_i_1 == min_distance) {
+				previous |= AlignmentMatrix.PREVIOUS_ROW;
+			}
+
+			if (distance_j_1 == min_distance) {
+				previous |= AlignmentMatrix.PREVIOUS_COLUMN;
+			}
+
+			if (distance_i_j_1 == min_distance) {
+				previous |= AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN;
+			}
+			columnPreviousCells[i - windowStart] = previous;
+		}
+
+		windowStarts[column % windowStarts.length] = windowStart;
+		previousCells[column % windowStarts.length] = columnPreviousCells;
+
+		// Find the best cell, with the lowest distance per step
+		double bestScore = Double.POSITIVE_INFINITY;
+		for (int i = windowStart; i <= windowEnd; i++) {
+			double score = distances[i - windowStart] / (i + column);
+			if (score < bestScore) {
+				bestScore = score;
+				bestRow = i;
+			}
+		}
+
+		// Commit the oldest column, if it is now too old
+		if (column - oldestColumn >= latency) {
+			commit(getPath(bestRow, column), 1);
+		}
+	}
+
+	/**
+	 * Get the distance of a cell in a column.
+	 *
+	 * @param columnDistances The distances of the column's window.
+	 * @param columnWindowStart The first row of the column's window.
+	 * @param row The row of the cell.
+	 *
+	 * @return The distance of the cell, or infinity if it is outside of the window.
+	 */
+	private static double getDistance(double[] columnDistances, int columnWindowStart, int row) {
+		int index = row - columnWindowStart;
+		return index >= 0 && index < columnDistances.length ? columnDistances[index] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Mark the end of the transcription, and commit every remaining anchor, using the path to the final
+	 * cell if it is within the last window (or to the best cell otherwise).
+	 */
+	public void finish() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+
+		int column = columns;
+		int lastRow = gtHistograms.length;
+		int endRow = getDistance(distances, windowStart, lastRow) < Double.POSITIVE_INFINITY ? lastRow : bestRow;
+
+		commit(getPath(endRow, column), column - oldestColumn + 1);
+	}
+
+	/**
+	 * Trace the best path back from the given cell through the kept columns.
+	 *
+	 * @param row The row of the cell.
+	 * @param column The column of the cell.
+	 *
+	 * @return For each kept column (from the oldest), the ground truth note list index aligned with it on
+	 * the path, or -1 if it is not aligned.
+	 */
+	private int[] getPath(int row, int column) {
+		int[] path = new int[column - oldestColumn + 1];
+		Arrays.fill(path, -1);
+
+		int i = row;
+		int j = column;
+		while (j >= oldestColumn && i > 0) {
+			byte previous = previousCells[j % windowStarts.length][i - windowStarts[j % windowStarts.length]];
+
+			if ((previous & AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN) != 0) {
+				// Ground truth note list i - 1 is aligned with transcription note list j - 1
+				path[j - oldestColumn] = i - 1;
+				i--;
+				j--;
+			} else if ((previous & AlignmentMatrix.PREVIOUS_ROW) != 0) {
+				i--;
+			} else if ((previous & AlignmentMatrix.PREVIOUS_COLUMN) != 0) {
+				j--;
+			} else {
+				// Unreachable cell
+				break;
+			}
+		}
+
+		return path;
+	}
+
+	/**
+	 * Commit the anchors of the given number of the oldest kept columns, from the given path, and stop
+	 * keeping those columns.
+	 *
+	 * @param path The path, from {@link #getPath(int, int)}.
+	 * @param count The number of columns to commit.
+	 */
+	private void commit(int[] path, int count) {
+		for (int k = 0; k < count; k++) {
+			int gtIndex = path[k];
+			int transcriptionIndex = oldestColumn - 1;
+			int transcriptionTime = columnTimes[oldestColumn % columnTimes.length];
+
+			if (gtIndex != -1 && (anchorGtIndices.isEmpty() || gtIndex > anchorGtIndices.get(anchorGtIndices.size() - 1))) {
+				anchorGtIndices.add(gtIndex);
+				anchorTranscriptionIndices.add(transcriptionIndex);
+				anchorTranscriptionTimes.add(transcriptionTime);
+
+				if (Main.VERBOSE) {
+					System.out.println("Committed anchor: transcription note list " + transcriptionIndex + " (time " +
+							transcriptionTime + ") -> ground truth note list " + gtIndex + " (time " +
+							gtTimes[gtIndex] + ")");
+				}
+			}
+
+			previousCells[oldestColumn % windowStarts.length] = null;
+			oldestColumn++;
+		}
+	}
+
+	/**
+	 * Get the anchors of the current best time map: the committed anchors, followed by those on the
+	 * current best path which are consistent with them.
+	 *
+	 * @return A list containing two lists: the ground truth note list index and the transcription note list
+	 * index of each anchor.
+	 */
+	private List<List<Integer>> getAnchors() {
+		List<Integer> gtIndices = new ArrayList<Integer>(anchorGtIndices);
+		List<Integer> transcriptionIndices = new ArrayList<Integer>(anchorTranscriptionIndices);
+
+		if (!finished && columns > 0) {
+			int[] path = getPath(bestRow, columns);
+
+			for (int k = 0; k < path.length; k++) {
+				if (path[k] != -1 && (gtIndices.isEmpty() || path[k] > gtIndices.get(gtIndices.size() - 1))) {
+					gtIndices.add(path[k]);
+					transcriptionIndices.add(oldestColumn - 1 + k);
+				}
+			}
+		}
+
+		List<List<Integer>> anchors = new ArrayList<List<Integer>>(2);
+		anchors.add(gtIndices);
+		anchors.add(transcriptionIndices);
+		return anchors;
+	}
+
+	/**
+	 * Get the current best time map.
+	 *
+	 * @return A TimeMap whose anchors are the committed anchors, followed by those on the current best path.
+	 */
+	public TimeMap getTimeMap() {
+		List<List<Integer>> anchors = getAnchors();
+		List<Integer> gtIndices = anchors.get(0);
+		List<Integer> transcriptionIndices = anchors.get(1);
+
+		int[] transcriptionAnchorTimes = new int[gtIndices.size()];
+		int[] gtAnchorTimes = new int[gtIndices.size()];
+		for (int k = 0; k < gtAnchorTimes.length; k++) {
+			// Committed anchors store their times, and the others are in kept columns
+			transcriptionAnchorTimes[k] = k < anchorTranscriptionTimes.size() ? anchorTranscriptionTimes.get(k) :
+					columnTimes[(transcriptionIndices.get(k) + 1) % columnTimes.length];
+			gtAnchorTimes[k] = gtTimes[gtIndices.get(k)];
+		}
+
+		return new TimeMap(transcriptionAnchorTimes, gtAnchorTimes);
+	}
+
+	/**
+	 * Get the current best alignment, in the format used by {@link Aligner}.
+	 *
+	 * @return A list containing, for each ground truth note list, the index of the transcription
+	 * note list to which it is aligned, or -1 if it is not aligned with any transcription note list.
+	 */
+	public List<Integer> getAlignment() {
+		List<List<Integer>> anchors = getAnchors();
+
+		List<Integer> alignment = new ArrayList<Integer>(Collections.nCopies(gtHistograms.length, -1));
+		for (int k = 0; k < anchors.get(0).size(); k++) {
+			alignment.set(anchors.get(0).get(k), anchors.get(1).get(k));
+		}
+
+		return alignment;
+	}
+
+	/**
+	 * Get the transcription time up to which the time map is final. Once at least two anchors have
+	 * been committed, every time up to the last committed anchor is converted by every later time map
+	 * in the same way.
+	 *
+	 * @return The transcription time of the last committed anchor, or {@link Integer#MIN_VALUE} if
+	 * fewer than two anchors have been committed.
+	 */
+	public int getCommittedTime() {
+		if (anchorTranscriptionIndices.size() < 2) {
+			return Integer.MIN_VALUE;
+		}
+
+		return anchorTranscriptionTimes.get(anchorTranscriptionTimes.size() - 1);
+	}
+}
@@ -0,0 +1,141 @@
+package mv2h.tools;
+
+import java.util.Arrays;
+import java.util.List;
+
+import mv2h.Main;
+import mv2h.objects.Note;
+
+/**
+ * A <code>PitchHistogram</code> stores the number of notes at each pitch in a note list, as
+ * parallel arrays of distinct pitches (in increasing order) and their counts. It is used by
+ * {@link Aligner} to calculate the distance between note lists without boxing or hashing.
+ *
+ * @author Andrew McLeod
+ */
+public class PitchHistogram {
+	/**
+	 * The distinct pitches of the notes, in increasing order.
+	 */
+	private final int[] pitches;
+
+	/**
+	 * The number of notes at each pitch in {@link #pitches}.
+	 */
+	private final int[] counts;
+
+	/**
+	 * The total number of notes.
+	 */
+	public final int noteCount;
+
+	/**
+	 * Create a new PitchHistogram of the given notes.
+	 *
+	 * @param notes The notes.
+	 */
+	public PitchHistogram(List<Note> notes) {
+		int[] sortedPitches = new int[notes.size()];
+		for (int i = 0; i < sortedPitches.length; i++) {
+			sortedPitches[i] = notes.get(i).pitch;
+		}
+		Arrays.sort(sortedPitches);
+
+		int distinct = 0;
+		for (int i = 0; i < sortedPitches.length; i++) {
+			if (i == 0 || sortedPitches[i] != sortedPitches[i - 1]) {
+				distinct++;
+			}
+		}
+
+		pitches = new int[distinct];
+		counts = new int[distinct];
+		int index = -1;
+		for (int i = 0; i < sortedPitches.length; i++) {
+			if (i == 0 || sortedPitches[i] != sortedPitches[i - 1]) {
+				index++;
+				pitches[index] = sortedPitches[i];
+			}
+			counts[index]++;
+		}
+
+		noteCount = sortedPitches.length;
+	}
+
+	/**
+	 * Create a new PitchHistogram containing the notes of both of the given histograms. This is used
+	 * to downsample note list sequences for multi-resolution alignment.
+	 *
+	 * @param first The first histogram.
+	 * @param second The second histogram.
+	 */
+	public PitchHistogram(PitchHistogram first, PitchHistogram second) {
+		int[] mergedPitches = new int[first.pitches.length + second.pitches.length];
+		int[] mergedCounts = new int[mergedPitches.length];
+
+		// Merge the two sorted pitch arrays
+		int distinct = 0;
+		int firstIndex = 0;
+		int secondIndex = 0;
+		while (firstIndex < first.pitches.length || secondIndex < second.pitches.length) {
+			if (secondIndex == second.pitches.length ||
+					(firstIndex < first.pitches.length && first.pitches[firstIndex] < second.pitches[secondIndex])) {
+				mergedPitches[distinct] = first.pitches[firstIndex];
+				mergedCounts[distinct] = first.counts[firstIndex++];
+
+			} else if (firstIndex == first.pitches.length || second.pitches[secondIndex] < first.pitches[firstIndex]) {
+				mergedPitches[distinct] = second.pitches[secondIndex];
+				mergedCounts[distinct] = second.counts[secondIndex++];
+
+			} else {
+				mergedPitches[distinct] = first.pitches[firstIndex];
+				mergedCounts[distinct] = first.counts[firstIndex++] + second.counts[secondIndex++];
+			}
+			distinct++;
+		}
+
+		pitches = Arrays.copyOf(mergedPitches, distinct);
+		counts = Arrays.copyOf(mergedCounts, distinct);
+		noteCount = first.noteCount + second.noteCount;
+	}
+
+	/**
+	 * Get the distance between this (transcription) histogram and a ground truth histogram.
+	 *
+	 * @param groundTruth The pitch histogram of a ground truth note list.
+	 * @return The alignment score. 1 - its F-measure.
+	 */
+	public double getDistance(PitchHistogram groundTruth) {
+		int truePositives = 0;
+		int falsePositives = 0;
+
+		// Merge the two sorted pitch arrays
+		int gtIndex = 0;
+		for (int i = 0; i < pitches.length; i++) {
+			while (gtIndex < groundTruth.pitches.length && groundTruth.pitches[gtIndex] < pitches[i]) {
+				gtIndex++;
+			}
+
+			int count = counts[i];
+			if (gtIndex < groundTruth.pitches.length && groundTruth.pitches[gtIndex] == pitches[i]) {
+				int gtCount = groundTruth.counts[gtIndex];
+
+				truePositives += Math.min(count, gtCount);
+				if (count > gtCount) {
+					falsePositives += count - gtCount;
+				}
+
+			} else {
+				falsePositives += count;
+			}
+		}
+
+		if (truePositives == 0) {
+			return 1.0;
+		}
+
+		int falseNegatives = groundTruth.noteCount - truePositives;
+
+		return 1.0 - Main.getF1(truePositives, falsePositives, falseNegatives);
+	}
+}
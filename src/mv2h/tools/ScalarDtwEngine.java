@@ -0,0 +1,59 @@
+package mv2h.tools;
+
+/**
+ * A <code>ScalarDtwEngine</code> computes the Dynamic Time Warping recurrence cell by cell.
+ * This is the default {@link DtwEngine}.
+ *
+ * @author Andrew McLeod
+ */
+public class ScalarDtwEngine implements DtwEngine {
+	@Override
+	public void fillRow(double[] previousRow, int previousStart, double[] row, int rowStart, int from, int to,
+			double[] localDistances, byte[] previousCells, int previousCellsOffset, double penalty) {
+		for (int k = from; k < to; k++) {
+			int j = rowStart + k;
+			if (j == 0) {
+				row[k] = Double.POSITIVE_INFINITY;
+				previousCells[previousCellsOffset + k] = 0;
+				continue;
+			}
+
+			double distance_i_1 = getDistance(previousRow, previousStart, j) + penalty;
+			double distance_j_1 = (k == 0 ? Double.POSITIVE_INFINITY : row[k - 1]) + penalty;
+			double distance_i_j_1 = getDistance(previousRow, previousStart, j - 1) + localDistances[k - from];
+
+			double min_distance = Math.min(Math.min(distance_i_1, distance_j_1), distance_i_j_1);
+			row[k] = min_distance;
+
+			byte mask = 0;
+			if (min_distance != Double.POSITIVE_INFINITY) {
+				if (distance_i_1 == min_distance) {
+					mask |= AlignmentMatrix.PREVIOUS_ROW;
+				}
+
+				if (distance_j_1 == min_distance) {
+					mask |= AlignmentMatrix.PREVIOUS_COLUMN;
+				}
+
+				if (distance_i_j_1 == min_distance) {
+					mask |= AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN;
+				}
+			}
+			previousCells[previousCellsOffset + k] = mask;
+		}
+	}
+
+	/**
+	 * Get the distance of a cell in a row.
+	 *
+	 * @param row The distances of the row's cells within its band.
+	 * @param rowStart The first column of the row's band.
+	 * @param j The column of the cell.
+	 *
+	 * @return The distance of the cell, or infinity if it is outside of the band.
+	 */
+	private static double getDistance(double[] row, int rowStart, int j) {
+		int k = j - rowStart;
+		return k >= 0 && k < row.length ? row[k] : Double.POSITIVE_INFINITY;
+	}
+}
@@ -0,0 +1,280 @@
+package mv2h.tools;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A <code>SearchPlanner</code> chooses how to search the candidate alignments of a transcription, before any
+ * of them are searched, so that the search takes no more than about a given time. It is based on:
+ * <ul>
+ * <li>The exact number of candidate alignments (from the root {@link AlignmentNode}s' counts).</li>
+ * <li>The number of DTW ties (alignment DAG nodes with more than one previous node), which cause it.</li>
+ * <li>The time taken to evaluate each of a small sample of the alignments.</li>
+ * </ul>
+ * The sample is evaluated by the search's own {@link AlignmentEvaluator} (see
+ * {@link AlignmentEvaluator#evaluateSample(int, double)}), so its best alignment is kept, and the search
+ * resumes after it. The sample takes no more than a fraction of the given time, and the rest of the search
+ * is planned within the time which remains.
+ * If an exhaustive search is predicted to finish in time (either serially, or with the available threads),
+ * it is chosen. Otherwise, a budgeted best-first search is chosen, limited to the remaining time and to the
+ * number of alignments which are predicted to be evaluated in that time
+ * (see {@link AlignmentEvaluator#evaluateBestFirst(long, double)}).
+ * <br>
+ * The prediction ignores pruning, so an exhaustive search is usually faster than predicted.
+ *
+ * @author Andrew McLeod
+ */
+public class SearchPlanner {
+	/**
+	 * The strategy of a serial exhaustive search.
+	 */
+	public static final int EXHAUSTIVE = 0;
+
+	/**
+	 * The strategy of a parallel exhaustive search.
+	 */
+	public static final int PARALLEL_EXHAUSTIVE = 1;
+
+	/**
+	 * The strategy of a budgeted best-first search.
+	 */
+	public static final int BUDGETED = 2;
+
+	/**
+	 * The maximum number of alignments to evaluate to measure the time taken per alignment.
+	 */
+	private static final int MAX_SAMPLES = 20;
+
+	/**
+	 * The maximum time, in seconds, to spend evaluating alignments to measure the time taken per alignment
+	 * (at least one alignment is always evaluated).
+	 */
+	private static final double MAX_SAMPLE_SECONDS = 1.0;
+
+	/**
+	 * The maximum fraction of the plan's time limit to spend evaluating alignments to measure the time taken
+	 * per alignment (at least one alignment is always evaluated).
+	 */
+	private static final double MAX_SAMPLE_FRACTION = 0.1;
+
+	/**
+	 * The evaluator which performs the search, and evaluates the sample.
+	 */
+	private final AlignmentEvaluator evaluator;
+
+	/**
+	 * The total number of candidate alignments.
+	 */
+	private final BigInteger total;
+
+	/**
+	 * The number of nodes in the alignment DAG.
+	 */
+	private final long nodeCount;
+
+	/**
+	 * The number of nodes in the alignment DAG with more than one previous node.
+	 */
+	private final long tieCount;
+
+	/**
+	 * The number of alignments evaluated to measure {@link #secondsPerAlignment}.
+	 */
+	private int sampleCount;
+
+	/**
+	 * The mean time, in seconds, taken to evaluate each sampled alignment.
+	 */
+	private double secondsPerAlignment;
+
+	/**
+	 * The time, in seconds, taken to evaluate the sample.
+	 */
+	private double sampleSeconds;
+
+	/**
+	 * The chosen strategy: {@link #EXHAUSTIVE}, {@link #PARALLEL_EXHAUSTIVE}, or {@link #BUDGETED}.
+	 */
+	private int strategy;
+
+	/**
+	 * The number of threads chosen.
+	 */
+	private int threads;
+
+	/**
+	 * The maximum number of alignments to evaluate in a budgeted search.
+	 */
+	private long candidateLimit;
+
+	/**
+	 * The time limit, in seconds, of the plan.
+	 */
+	private double timeLimit;
+
+	/**
+	 * Create a new SearchPlanner, counting the alignment DAG's nodes and ties. No alignments are evaluated,
+	 * and no search strategy is chosen, until {@link #plan(double, int)} is called.
+	 *
+	 * @param evaluator {@link #evaluator}
+	 * @param alignmentNodes The root alignment nodes, from {@link Aligner#getPossibleAlignments(mv2h.objects.Music, mv2h.objects.Music)},
+	 * as given to the evaluator.
+	 */
+	public SearchPlanner(AlignmentEvaluator evaluator, List<AlignmentNode> alignmentNodes) {
+		this.evaluator = evaluator;
+		total = AlignmentIterator.getTotal(alignmentNodes);
+
+		// Count the nodes and ties
+		Set<AlignmentNode> visited = Collections.newSetFromMap(new IdentityHashMap<AlignmentNode, Boolean>());
+		Deque<AlignmentNode> stack = new ArrayDeque<AlignmentNode>(alignmentNodes);
+		long ties = 0;
+		while (!stack.isEmpty()) {
+			AlignmentNode node = stack.pop();
+			if (!visited.add(node)) {
+				continue;
+			}
+
+			if (node.prevList.size() > 1) {
+				ties++;
+			}
+			stack.addAll(node.prevList);
+		}
+		nodeCount = visited.size();
+		tieCount = ties;
+
+		sampleCount = 0;
+		secondsPerAlignment = 0.0;
+		sampleSeconds = 0.0;
+		strategy = EXHAUSTIVE;
+		threads = 1;
+		candidateLimit = -1;
+		timeLimit = -1;
+	}
+
+	/**
+	 * Evaluate a sample of the alignments, for no more than {@link #MAX_SAMPLE_FRACTION} of the given time,
+	 * and choose a search strategy for the rest of the alignments which is predicted to take no more than
+	 * about the time which remains.
+	 *
+	 * @param timeLimit The time limit, in seconds.
+	 * @param maxThreads The maximum number of threads to use.
+	 *
+	 * @return The chosen strategy: {@link #EXHAUSTIVE}, {@link #PARALLEL_EXHAUSTIVE}, or {@link #BUDGETED}.
+	 */
+	public int plan(double timeLimit, int maxThreads) {
+		this.timeLimit = timeLimit;
+
+		// Time a sample of the alignments
+		long start = System.nanoTime();
+		sampleCount = evaluator.evaluateSample(MAX_SAMPLES, Math.min(MAX_SAMPLE_SECONDS, timeLimit * MAX_SAMPLE_FRACTION));
+		sampleSeconds = (System.nanoTime() - start) / 1E9;
+		secondsPerAlignment = sampleCount == 0 ? 0.0 : sampleSeconds / sampleCount;
+
+		double predicted = getPredictedSeconds();
+		double remaining = getRemainingSeconds();
+
+		if (evaluator.isSampleComplete() || predicted <= remaining) {
+			strategy = EXHAUSTIVE;
+			threads = 1;
+
+		} else if (maxThreads > 1 && predicted / maxThreads <= remaining) {
+			strategy = PARALLEL_EXHAUSTIVE;
+			threads = maxThreads;
+
+		} else {
+			strategy = BUDGETED;
+			threads = 1;
+			candidateLimit = Math.max((long) (remaining / secondsPerAlignment), 1L);
+		}
+
+		return strategy;
+	}
+
+	/**
+	 * Get the predicted time taken by a serial exhaustive search of the alignments after the sample
+	 * (ignoring pruning).
+	 *
+	 * @return The predicted time, in seconds.
+	 */
+	public double getPredictedSeconds() {
+		return Math.max(total.doubleValue() - sampleCount, 0.0) * secondsPerAlignment;
+	}
+
+	/**
+	 * Get the time which remains of the plan's time limit after the sample.
+	 *
+	 * @return The remaining time, in seconds (at least 0).
+	 */
+	public double getRemainingSeconds() {
+		return Math.max(timeLimit - sampleSeconds, 0.0);
+	}
+
+	/**
+	 * Get the chosen strategy.
+	 *
+	 * @return {@link #strategy}
+	 */
+	public int getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Get the number of threads chosen for the search.
+	 *
+	 * @return {@link #threads}
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Get the maximum number of alignments to evaluate, if a budgeted search was chosen.
+	 *
+	 * @return {@link #candidateLimit}, or -1 if a budgeted search was not chosen.
+	 */
+	public long getCandidateLimit() {
+		return candidateLimit;
+	}
+
+	/**
+	 * Get the number of nodes in the alignment DAG with more than one previous node.
+	 *
+	 * @return {@link #tieCount}
+	 */
+	public long getTieCount() {
+		return tieCount;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Search plan: ");
+		sb.append(total).append(" alignments (from ").append(tieCount).append(" ties in ");
+		sb.append(nodeCount).append(" DTW path nodes), ");
+		sb.append(String.format("%.3f", secondsPerAlignment * 1000)).append(" ms per alignment (over ");
+		sb.append(sampleCount).append(" samples, in ").append(String.format("%.3g", sampleSeconds)).append(" seconds).\n");
+
+		sb.append("Predicted exhaustive search time: ").append(String.format("%.3g", getPredictedSeconds()));
+		sb.append(" seconds (before pruning). Chose ");
+		switch (strategy) {
+			case EXHAUSTIVE:
+				sb.append("exhaustive search.");
+				break;
+
+			case PARALLEL_EXHAUSTIVE:
+				sb.append("parallel exhaustive search (").append(threads).append(" threads, predicted ");
+				sb.append(String.format("%.3g", getPredictedSeconds() / threads)).append(" seconds).");
+				break;
+
+			default:
+				sb.append("budgeted search (at most ").append(candidateLimit).append(" more alignments in the remaining ");
+				sb.append(String.format("%.3g", getRemainingSeconds())).append(" seconds).");
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,115 @@
+package mv2h.tools;
+
+import java.util.Arrays;
+
+/**
+ * A <code>TimeMap</code> converts times from a transcription's time scale to a ground truth's time
+ * scale, given an alignment. It is compiled once per alignment (see
+ * {@link Aligner#getTimeMap(mv2h.objects.Music, mv2h.objects.Music, java.util.List)}) into sorted
+ * arrays of anchor times: the onset time of each aligned transcription note list, and the onset time
+ * of the ground truth note list to which it is aligned. Each conversion is then a binary search.
+ * <br>
+ * A time equal to an anchor's transcription time is converted to that anchor's ground truth time.
+ * A time between two anchors is converted by linear interpolation between them. A time before the
+ * first (or after the last) anchor is converted by extrapolating the rate between the first (or last)
+ * two anchors, or by a linear shift if there is only one anchor. If there are no anchors, times are
+ * not changed.
+ *
+ * @author Andrew McLeod
+ */
+public class TimeMap {
+	/**
+	 * The transcription time of each anchor, in strictly increasing order.
+	 */
+	private final int[] transcriptionTimes;
+
+	/**
+	 * The ground truth time of each anchor.
+	 */
+	private final int[] groundTruthTimes;
+
+	/**
+	 * Create a new TimeMap with the given anchors.
+	 *
+	 * @param transcriptionTimes {@link #transcriptionTimes}
+	 * @param groundTruthTimes {@link #groundTruthTimes}
+	 */
+	public TimeMap(int[] transcriptionTimes, int[] groundTruthTimes) {
+		this.transcriptionTimes = transcriptionTimes;
+		this.groundTruthTimes = groundTruthTimes;
+	}
+
+	/**
+	 * Convert a time from transcription scale to ground truth scale.
+	 *
+	 * @param time The time to convert.
+	 * @return The converted time.
+	 */
+	public int convert(int time) {
+		int anchors = transcriptionTimes.length;
+		if (anchors == 0) {
+			// Nothing was aligned
+			return time;
+		}
+
+		int index = Arrays.binarySearch(transcriptionTimes, time);
+		if (index >= 0) {
+			// This is the correct time, exactly on an anchor
+			return groundTruthTimes[index];
+		}
+
+		// The index of the first anchor after the time
+		int nextAnchor = -index - 1;
+
+		if (nextAnchor == 0) {
+			// Time is before the first anchor. Use the rate from the first anchor.
+			return anchors > 1 ? convert(time, 0, 1) : shift(time, 0);
+
+		} else if (nextAnchor == anchors) {
+			// Time is after the last anchor. Use the previous rate.
+			return anchors > 1 ? convert(time, anchors - 2, anchors - 1) : shift(time, anchors - 1);
+		}
+
+		// Time is between anchor points.
+		return convert(time, nextAnchor - 1, nextAnchor);
+	}
+
+	/**
+	 * Convert the given time using the rate between the given anchors.
+	 *
+	 * @param time The time to convert.
+	 * @param previousAnchor The index of the first anchor.
+	 * @param nextAnchor The index of the second anchor.
+	 *
+	 * @return The converted time.
+	 */
+	private int convert(int time, int previousAnchor, int nextAnchor) {
+		int gtPreviousTime = groundTruthTimes[previousAnchor];
+		int mPreviousTime = transcriptionTimes[previousAnchor];
+
+		double rate = ((double) (groundTruthTimes[nextAnchor] - gtPreviousTime)) / (transcriptionTimes[nextAnchor] - mPreviousTime);
+
+		return (int) Math.round(rate * (time - mPreviousTime) + gtPreviousTime);
+	}
+
+	/**
+	 * Convert the given time with a linear shift by the given anchor.
+	 *
+	 * @param time The time to convert.
+	 * @param anchor The index of the anchor.
+	 *
+	 * @return The converted time.
+	 */
+	private int shift(int time, int anchor) {
+		return time - transcriptionTimes[anchor] + groundTruthTimes[anchor];
+	}
+
+	/**
+	 * Get the number of anchors in this map.
+	 *
+	 * @return The number of anchors.
+	 */
+	public int getAnchorCount() {
+		return transcriptionTimes.length;
+	}
+}
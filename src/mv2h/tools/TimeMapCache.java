@@ -0,0 +1,120 @@
+package mv2h.tools;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mv2h.objects.MV2H;
+
+/**
+ * A <code>TimeMapCache</code> stores the {@link MV2H} score of each distinct time map which has been
+ * scored, keyed by the converted times that it induces (see {@link IncrementalEvaluator}). Many candidate
+ * alignments differ only in which of several identical, equally-timed note lists is left unaligned, and so
+ * induce the same converted times, giving an identical aligned transcription and identical scores.
+ * Each such time map need only be scored once.
+ * <br>
+ * Rather than the converted times themselves (one for every time in the transcription), each time map is
+ * keyed by their SHA-256 digest, so that every scored time map takes a small constant amount of memory.
+ * The chance of two different time maps sharing a digest is negligible.
+ * <br>
+ * A TimeMapCache is thread-safe, and can be shared between the evaluators of a parallel search.
+ *
+ * @author Andrew McLeod
+ */
+public class TimeMapCache {
+	/**
+	 * The digest algorithm used to key each time map.
+	 */
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	/**
+	 * The score of each time map, keyed by the digest of its converted times.
+	 */
+	private final ConcurrentHashMap<Key, MV2H> scores;
+
+	/**
+	 * Create a new empty TimeMapCache.
+	 */
+	public TimeMapCache() {
+		scores = new ConcurrentHashMap<Key, MV2H>();
+	}
+
+	/**
+	 * Get the score of the time map which induces the given converted times.
+	 *
+	 * @param alignedTimes The converted times.
+	 * @return The score, or null if that time map has not been scored.
+	 */
+	public MV2H get(int[] alignedTimes) {
+		return scores.get(new Key(alignedTimes));
+	}
+
+	/**
+	 * Save the score of the time map which induces the given converted times.
+	 *
+	 * @param alignedTimes The converted times.
+	 * @param score The score.
+	 */
+	public void put(int[] alignedTimes, MV2H score) {
+		scores.putIfAbsent(new Key(alignedTimes), score);
+	}
+
+	/**
+	 * Get the number of distinct time maps which have been scored.
+	 *
+	 * @return The number of time maps in this cache.
+	 */
+	public int size() {
+		return scores.size();
+	}
+
+	/**
+	 * A <code>Key</code> holds the digest of an array of converted times, comparing them by value.
+	 */
+	private static class Key {
+		/**
+		 * The digest of the converted times.
+		 */
+		private final byte[] digest;
+
+		/**
+		 * The hash code of {@link #digest}.
+		 */
+		private final int hashCode;
+
+		/**
+		 * Create a new Key.
+		 *
+		 * @param alignedTimes The converted times, which are not kept.
+		 */
+		public Key(int[] alignedTimes) {
+			ByteBuffer bytes = ByteBuffer.allocate(4 * alignedTimes.length);
+			bytes.asIntBuffer().put(alignedTimes);
+
+			try {
+				digest = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(bytes.array());
+			} catch (NoSuchAlgorithmException e) {
+				// Every Java platform must support SHA-256
+				throw new IllegalStateException(e);
+			}
+			hashCode = Arrays.hashCode(digest);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key key = (Key) o;
+			return hashCode == key.hashCode && Arrays.equals(digest, key.digest);
+		}
+	}
+}
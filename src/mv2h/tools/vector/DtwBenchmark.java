@@ -0,0 +1,100 @@
+package mv2h.tools.vector;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import jdk.incubator.vector.DoubleVector;
+
+import mv2h.tools.DtwEngine;
+import mv2h.tools.ScalarDtwEngine;
+
+/**
+ * The <code>DtwBenchmark</code> class compares the {@link VectorDtwEngine} with the {@link ScalarDtwEngine}
+ * on a large, full alignment matrix of random local distances. It checks that both engines give
+ * bit-identical distances and previous cells, and prints the time taken by each.
+ * <br>
+ * Run with: <code>java --add-modules jdk.incubator.vector -cp bin mv2h.tools.vector.DtwBenchmark [SIZE [REPEATS]]</code>
+ *
+ * @author Andrew McLeod
+ */
+public class DtwBenchmark {
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args The number of rows and columns of the matrix (default 4000), and the number
+	 * of timed repeats (default 5).
+	 */
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+		int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		// Local distances are multiples of 1/4, like the F-measures of small note lists, so that ties are common
+		Random random = new Random(0);
+		double[][] localDistances = new double[size + 1][size + 1];
+		for (int i = 1; i <= size; i++) {
+			for (int j = 1; j <= size; j++) {
+				localDistances[i][j] = random.nextInt(5) / 4.0;
+			}
+		}
+
+		double[][] scalarDistances = new double[size + 1][size + 1];
+		byte[] scalarPreviousCells = new byte[(size + 1) * (size + 1)];
+		double[][] vectorDistances = new double[size + 1][size + 1];
+		byte[] vectorPreviousCells = new byte[(size + 1) * (size + 1)];
+
+		DtwEngine scalar = new ScalarDtwEngine();
+		DtwEngine vector = new VectorDtwEngine();
+
+		// Warm up
+		for (int i = 0; i < 2; i++) {
+			fill(scalar, localDistances, scalarDistances, scalarPreviousCells);
+			fill(vector, localDistances, vectorDistances, vectorPreviousCells);
+		}
+
+		long scalarTime = Long.MAX_VALUE;
+		long vectorTime = Long.MAX_VALUE;
+		for (int i = 0; i < repeats; i++) {
+			scalarTime = Math.min(scalarTime, fill(scalar, localDistances, scalarDistances, scalarPreviousCells));
+			vectorTime = Math.min(vectorTime, fill(vector, localDistances, vectorDistances, vectorPreviousCells));
+		}
+
+		boolean identical = Arrays.equals(scalarPreviousCells, vectorPreviousCells);
+		for (int i = 0; i <= size && identical; i++) {
+			for (int j = 0; j <= size && identical; j++) {
+				identical = Double.doubleToRawLongBits(scalarDistances[i][j]) == Double.doubleToRawLongBits(vectorDistances[i][j]);
+			}
+		}
+
+		System.out.println("Matrix: " + size + " x " + size + ", best of " + repeats);
+		System.out.println("Scalar: " + (scalarTime / 1000000.0) + " ms");
+		System.out.println("Vector: " + (vectorTime / 1000000.0) + " ms (" + DoubleVector.SPECIES_PREFERRED + ")");
+		System.out.println("Speedup: " + ((double) scalarTime / vectorTime));
+		System.out.println("Bit-identical: " + identical);
+
+		if (!identical) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Fill a full alignment matrix with the given engine.
+	 *
+	 * @param engine The engine.
+	 * @param localDistances The local distance of each cell.
+	 * @param distances The distance of each cell. This will be filled.
+	 * @param previousCells The previous cells of each cell, in row-major order. This will be filled.
+	 *
+	 * @return The time taken, in nanoseconds.
+	 */
+	private static long fill(DtwEngine engine, double[][] localDistances, double[][] distances, byte[] previousCells) {
+		int columns = distances[0].length;
+		Arrays.fill(distances[0], Double.POSITIVE_INFINITY);
+		distances[0][0] = 0.0;
+
+		long start = System.nanoTime();
+		for (int i = 1; i < distances.length; i++) {
+			engine.fillRow(distances[i - 1], 0, distances[i], 0, 0, columns, localDistances[i], previousCells, i * columns, 1.0);
+		}
+		return System.nanoTime() - start;
+	}
+}
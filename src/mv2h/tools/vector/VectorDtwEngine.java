@@ -0,0 +1,137 @@
+package mv2h.tools.vector;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import mv2h.tools.AlignmentMatrix;
+import mv2h.tools.DtwEngine;
+import mv2h.tools.ScalarDtwEngine;
+
+/**
+ * A <code>VectorDtwEngine</code> computes the Dynamic Time Warping recurrence a row at a time using
+ * the <code>jdk.incubator.vector</code> API. It must be built and run with
+ * <code>--add-modules jdk.incubator.vector</code> (see <code>make vector</code>).
+ * <br>
+ * Each row is computed in three passes. First, the steps from the previous row (the vertical and diagonal
+ * steps) are combined, in vector lanes. Then, the steps from the previous column are applied in a
+ * sequential scan, since each depends on the last. Finally, the previous cells of each cell are found,
+ * in vector lanes, by comparing each step to the cell's distance. Since the minimum of the same three
+ * values does not depend on the order in which they are compared, the distances and previous cells are
+ * bit-identical to those of the {@link ScalarDtwEngine}.
+ * <br>
+ * A VectorDtwEngine holds no state between calls, and so is thread-safe.
+ *
+ * @author Andrew McLeod
+ */
+public class VectorDtwEngine implements DtwEngine {
+	/**
+	 * The vector species used for all computation.
+	 */
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public void fillRow(double[] previousRow, int previousStart, double[] row, int rowStart, int from, int to,
+			double[] localDistances, byte[] previousCells, int previousCellsOffset, double penalty) {
+		int width = to - from;
+		int firstColumn = rowStart + from;
+
+		// For each cell of the range, the distance of the cell above and to the left of it. The cell
+		// directly above each cell is at the next index. Cells outside of the band have infinite distance.
+		double[] above = new double[width + 1];
+		Arrays.fill(above, Double.POSITIVE_INFINITY);
+		int copyFrom = Math.max(previousStart, firstColumn - 1);
+		int copyTo = Math.min(previousStart + previousRow.length - 1, firstColumn + width - 1);
+		if (copyFrom <= copyTo) {
+			System.arraycopy(previousRow, copyFrom - previousStart, above, copyFrom - (firstColumn - 1), copyTo - copyFrom + 1);
+		}
+
+		// Column 0 is unreachable
+		int first = 0;
+		if (firstColumn == 0 && width > 0) {
+			row[from] = Double.POSITIVE_INFINITY;
+			previousCells[previousCellsOffset + from] = 0;
+			first = 1;
+		}
+
+		// Steps from the previous row
+		int k = first;
+		for (int bound = first + SPECIES.loopBound(Math.max(width - first, 0)); k < bound; k += SPECIES.length()) {
+			DoubleVector up = DoubleVector.fromArray(SPECIES, above, k + 1).add(penalty);
+			DoubleVector diagonal = DoubleVector.fromArray(SPECIES, above, k).add(DoubleVector.fromArray(SPECIES, localDistances, k));
+			up.min(diagonal).intoArray(row, from + k);
+		}
+		for (; k < width; k++) {
+			row[from + k] = Math.min(above[k + 1] + penalty, above[k] + localDistances[k]);
+		}
+
+		// Steps from the previous column. The cell before the range (if any) has already been computed.
+		k = first;
+		if (from == 0) {
+			k++;
+		}
+		for (; k < width; k++) {
+			row[from + k] = Math.min(row[from + k], row[from + k - 1] + penalty);
+		}
+
+		// Previous cells. The first cell of the row's band has no step from the previous column.
+		if (first < width) {
+			double left = from + first == 0 ? Double.POSITIVE_INFINITY : row[from + first - 1] + penalty;
+			previousCells[previousCellsOffset + from + first] = getPreviousCells(above[first + 1] + penalty, left,
+					above[first] + localDistances[first], row[from + first]);
+		}
+
+		k = first + 1;
+		for (int bound = k + SPECIES.loopBound(Math.max(width - k, 0)); k < bound; k += SPECIES.length()) {
+			DoubleVector distance = DoubleVector.fromArray(SPECIES, row, from + k);
+			VectorMask<Double> reachable = distance.compare(VectorOperators.LT, Double.POSITIVE_INFINITY);
+
+			long up = DoubleVector.fromArray(SPECIES, above, k + 1).add(penalty).eq(distance).and(reachable).toLong();
+			long left = DoubleVector.fromArray(SPECIES, row, from + k - 1).add(penalty).eq(distance).and(reachable).toLong();
+			long diagonal = DoubleVector.fromArray(SPECIES, above, k).add(DoubleVector.fromArray(SPECIES, localDistances, k))
+					.eq(distance).and(reachable).toLong();
+
+			for (int lane = 0; lane < SPECIES.length(); lane++) {
+				previousCells[previousCellsOffset + from + k + lane] = (byte) (
+						((up >>> lane) & 1) * AlignmentMatrix.PREVIOUS_ROW |
+						((left >>> lane) & 1) * AlignmentMatrix.PREVIOUS_COLUMN |
+						((diagonal >>> lane) & 1) * AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN);
+			}
+		}
+		for (; k < width; k++) {
+			previousCells[previousCellsOffset + from + k] = getPreviousCells(above[k + 1] + penalty, row[from + k - 1] + penalty,
+					above[k] + localDistances[k], row[from + k]);
+		}
+	}
+
+	/**
+	 * Get the previous cells bit mask of a cell.
+	 *
+	 * @param up The distance of the step from the previous row.
+	 * @param left The distance of the step from the previous column.
+	 * @param diagonal The distance of the step from the previous row and column.
+	 * @param distance The distance of the cell (the minimum of the steps).
+	 *
+	 * @return The previous cells bit mask, or 0 if the cell is unreachable.
+	 */
+	private static byte getPreviousCells(double up, double left, double diagonal, double distance) {
+		byte mask = 0;
+		if (distance != Double.POSITIVE_INFINITY) {
+			if (up == distance) {
+				mask |= AlignmentMatrix.PREVIOUS_ROW;
+			}
+
+			if (left == distance) {
+				mask |= AlignmentMatrix.PREVIOUS_COLUMN;
+			}
+
+			if (diagonal == distance) {
+				mask |= AlignmentMatrix.PREVIOUS_ROW_AND_COLUMN;
+			}
+		}
+		return mask;
+	}
+}